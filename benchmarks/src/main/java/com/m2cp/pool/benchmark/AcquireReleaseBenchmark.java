@@ -0,0 +1,119 @@
+package com.m2cp.pool.benchmark;
+
+import com.m2cp.pool.M2CP;
+import com.m2cp.pool.M2CPConfig;
+import com.m2cp.pool.stub.M2CPStubDatabase;
+import com.m2cp.pool.stub.M2CPStubDriver;
+import com.m2cp.pool.stub.M2CPStubLatency;
+import com.m2cp.pool.stub.M2CPStubOperation;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the hot path of the pool, i.e. leasing a connection and returning it right away. Each benchmark is
+ * measured both as throughput and as sampled latency. Whether the pool is plentiful or exhausted depends on the
+ * number of threads relative to the pool size: with more threads than connections the callers queue up for the
+ * returned connections. The work done while holding a connection, in JMH tokens, makes the exhausted case closer
+ * to a real workload. Use {@link BenchmarkRunner} to sweep over thread counts with the allocation profiler enabled
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AcquireReleaseBenchmark
+{
+    // Name and url of the in-memory database
+    private static final String DATABASE = "benchmark";
+    private static final String URL = M2CPStubDriver.url(DATABASE);
+
+    // Max number of open connections in the pool
+    @Param({"1", "4", "16", "64"})
+    public int poolSize;
+
+    // Work done while holding a connection, in JMH tokens
+    @Param({"0", "100"})
+    public long holdTokens;
+
+    // Median time of a validation round-trip, in microseconds
+    @Param({"0", "200"})
+    public long validationMicros;
+
+    // Pool instance under test
+    private M2CP pool;
+
+    /**
+     * Creates a pool instance warmed up to its full size, with lease and idle times long enough for the cleaner
+     * not to interfere with the measurement. Validation of the stub database takes a log-normal latency, which
+     * shows what the validation window saves on the hot path
+     * @throws SQLException if the pool instance fails to open its connections
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        M2CPStubDatabase database = M2CPStubDriver.getDatabase(DATABASE);
+        database.reset();
+        if (validationMicros > 0) {
+            database.setLatency(M2CPStubOperation.IS_VALID,
+                    M2CPStubLatency.logNormal(validationMicros, 0.5, TimeUnit.MICROSECONDS));
+        }
+
+        M2CPConfig config = new M2CPConfig();
+        config.setPoolSize(poolSize);
+        config.setMaxTimeLease(TimeUnit.MINUTES.toMillis(10));
+        config.setMaxTimeIdle(TimeUnit.MINUTES.toMillis(10));
+        config.setConnectionTimeout(TimeUnit.SECONDS.toMillis(30));
+        config.setKeepWarm(true);
+
+        Properties properties = new Properties();
+        properties.setProperty("user", "benchmark");
+        pool = M2CP.getPool(URL, properties, config);
+    }
+
+    /**
+     * Shuts the pool instance down, so that each trial starts with a fresh one
+     * @throws SQLException if the shutdown fails
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        pool.shutdown();
+    }
+
+    /**
+     * Leases a connection from the pool instance and returns it
+     * @param blackhole sink that keeps the connection from being optimized away
+     * @throws SQLException if returning the connection fails
+     */
+    @Benchmark
+    public void acquireRelease(Blackhole blackhole) throws SQLException {
+        Connection connection = pool.getConnection();
+        blackhole.consume(connection);
+        if (holdTokens > 0) {
+            Blackhole.consumeCPU(holdTokens);
+        }
+        connection.close();
+    }
+
+    /**
+     * Leases a connection through the static facade, which looks the pool instance up in the registry, and returns
+     * it
+     * @param blackhole sink that keeps the connection from being optimized away
+     * @throws SQLException if returning the connection fails
+     */
+    @Benchmark
+    public void acquireReleaseViaRegistry(Blackhole blackhole) throws SQLException {
+        Connection connection = M2CP.getConnection(URL, "benchmark", null);
+        blackhole.consume(connection);
+        if (holdTokens > 0) {
+            Blackhole.consumeCPU(holdTokens);
+        }
+        connection.close();
+    }
+}
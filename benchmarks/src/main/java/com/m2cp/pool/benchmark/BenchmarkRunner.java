@@ -0,0 +1,48 @@
+package com.m2cp.pool.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point that runs {@link AcquireReleaseBenchmark} once per thread count, from one thread up to the given max
+ * doubling each time, with the allocation profiler enabled. For each pool size this covers both the plentiful case,
+ * when there are at most as many threads as connections, and the exhausted case, when there are more. Arguments are
+ * the max number of threads, the number of available processors by default, and optionally a regexp to narrow down
+ * the benchmarks to run
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+public final class BenchmarkRunner
+{
+    /**
+     * Private constructor, as the class only holds the entry point
+     */
+    private BenchmarkRunner() {}
+
+    /**
+     * Runs the benchmarks for each thread count
+     * @param args max number of threads and a regexp of benchmarks to run, both optional
+     * @throws RunnerException if JMH fails to run the benchmarks
+     */
+    public static void main(String[] args) throws RunnerException {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        String include = args.length > 1 ? args[1] : AcquireReleaseBenchmark.class.getSimpleName();
+
+        for (int threads = 1; ; threads = Math.min(threads * 2, maxThreads)) {
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .result("m2cp-" + threads + "-threads.json")
+                    .resultFormat(ResultFormatType.JSON);
+            new Runner(options.build()).run();
+            if (threads >= maxThreads) {
+                break;
+            }
+        }
+    }
+}
@@ -1,180 +1,867 @@
 package com.m2cp.pool;
 
+import java.lang.ref.WeakReference;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
-import static com.m2cp.pool.M2CPMonitor.KEY;
 import static java.lang.System.currentTimeMillis;
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 /**
  * Class that represents a connection pool. Pool gets populated with wrapper objects that hold actual connections.
  * The term "lease" is used hereafter to indicate that the {@link M2CPWrapper} object is not meant to be actually
  * closed, but simply returned back to the pool after its usage.
- * The {@link M2CP} class is designed to hold only one instance of the pool at a time. Each property of the class
- * (except for references to the current pool instance and the list of wrappers, both of which are associated with
- * the particular pool instance), are class member variables that are set globally before a new instance of the pool
- * is created. The {@link M2CPCleaner} object is built per each pool instance to perform utility operations in a
- * separate thread while also controlling, when that pool instance must be shut down. The general idea is that the
- * pool gets shut down automatically when all wrappers in the list have been idle for a certain amount of time
+ * The {@link M2CP} class keeps a registry of pool instances, one per each distinct datasource, i.e. database url
+ * along with connection properties such as user and password. Each pool instance is configured independently with
+ * its own copy of {@link M2CPConfig} settings. Static setters of the class modify the default settings that are
+ * applied to each new pool instance created without an explicit config. The {@link M2CPCleaner} object is built
+ * per each pool instance to perform utility operations on a scheduler shared by all pool instances while also
+ * controlling, when that pool instance must be shut down. Anything that may block on the network, i.e. opening,
+ * validating and closing connections, is handed over to the connector threads of the pool instance, so the shared
+ * scheduler only ever changes state. The general idea is that the pool gets shut down automatically when all
+ * wrappers in the list have been idle for a certain amount of time, unless the pool is kept warm, in which case
+ * idle wrappers get validated instead. A pool instance that has been shut down leaves the registry, so the next
+ * caller for the same datasource creates a fresh instance
  * @author mikhailsaltyshev
  * @version 1.0.2
  */
 public final class M2CP
 {
-    // Connection pool instance
-    static volatile M2CP pool;
+    // Registry of pool instances, one per datasource. Each entry is registered before its pool instance gets created,
+    // so that callers of the same datasource wait for that one instance, while other datasources are not held up
+    private static final ConcurrentMap<M2CPKey, CompletableFuture<M2CP>> pools = new ConcurrentHashMap<>();
 
-    // Database access properties
-    private static String url;
-    private static String username;
-    private static String password;
+    // Default settings applied to each new pool instance created without an explicit config
+    private static final M2CPConfig defaults = new M2CPConfig();
 
-    // Global settings applied to each new pool instance
-    private static int poolSize = 10;
+    // Time in milliseconds an idle connector thread is kept alive
+    private static final long CONNECTOR_KEEP_ALIVE = 5000;
 
-    private static long cleanerSleep = 1000;
-    private static long maxTimeLease = 1000;
-    private static long maxTimeIdle = 1000;
+    // Datasource this pool instance is registered under
+    private final M2CPKey key;
+
+    // Settings of this pool instance
+    private final M2CPConfig config;
 
     // Collection to hold all connection wrapper objects
     private final List<M2CPWrapper> wrapperList = new CopyOnWriteArrayList<>();
 
+    // Wrapper last returned by each thread, tried first on the next lease by the same thread. The reference is weak
+    // so that the hint does not keep removed wrappers and shut down pool instances reachable from long-lived threads
+    private final ThreadLocal<WeakReference<M2CPWrapper>> lastReturned = new ThreadLocal<>();
+
+    // Threads waiting for a wrapper, in arrival order
+    private final Queue<M2CPWaiter> waiters = new ConcurrentLinkedQueue<>();
+
+    // Statistics of this pool instance
+    private final M2CPStatistics statistics = new M2CPStatistics();
+
+    // Listeners of this pool instance
+    private final M2CPListeners listeners;
+
+    // Number of wrappers being created in the background and not yet added to the list
+    private final AtomicInteger pendingWrappers = new AtomicInteger();
+
+    // Number of wrappers currently leased, and of threads currently waiting for one
+    private final LongAdder leasedWrappers = new LongAdder();
+    private final AtomicInteger waitingThreads = new AtomicInteger();
+
+    // Threads opening connections off the hot path, both on warm-up and on replenishment
+    private final ThreadPoolExecutor connector;
+
+    // Maintenance tasks of this pool instance
+    private final M2CPCleaner cleaner;
+    private final M2CPLeaseTimer leaseTimer;
+
+    // Management interface of this pool instance
+    private final M2CPManagement management;
+
+    // Set once this pool instance has been shut down
+    private volatile boolean shutdown = false;
+
     /**
      * Private constructor to prevent instantiating this pool from outside the class. This constructor populates
-     * the {@link List} collection with wrapper objects, holding associated connections
+     * the {@link List} collection with wrapper objects, holding associated connections, via {@link #warmUp()}
+     * @param key datasource of this pool instance
+     * @param config settings owned by this pool instance
      * @throws SQLException if the invoked {@link #getRealConnection()} fails to get connection
      */
-    private M2CP() throws SQLException {
-        repopulateWrapperList();
+    private M2CP(M2CPKey key, M2CPConfig config) throws SQLException {
+        this.key = key;
+        this.config = config;
+        this.listeners = new M2CPListeners(this, config.getListeners(), config.isAsyncListeners());
+
+        int threads = Math.min(config.getWarmupThreads(), config.getPoolSize());
+        connector = new ThreadPoolExecutor(threads, threads, CONNECTOR_KEEP_ALIVE, MILLISECONDS,
+                new LinkedBlockingQueue<>(), new M2CPThreadFactory("connector"));
+        // Threads are only kept around while there is something to connect
+        connector.allowCoreThreadTimeOut(true);
+
+        cleaner = new M2CPCleaner(this, config, config.getCleanerSleep(), config.isKeepWarm(),
+                config.getValidationBatchSize());
+        leaseTimer = new M2CPLeaseTimer(this, config);
+        management = new M2CPManagement(this, config);
+
+        warmUp();
     }
 
     /**
-     * Sets the cleaner sleep time between operations on this pool instance. The property will not take effect if
-     * a pool instance has already been created. It is not recommended to set sleep time lower than 10 milliseconds,
-     * as it can have negative impact on performance and result in errors
+     * Sets the cleaner sleep time between operations on each new pool instance. The property will not take effect
+     * on pool instances that have already been created. It is not recommended to set sleep time lower than 10
+     * milliseconds, as it can have negative impact on performance and result in errors
      * @param cleanerSleep in milliseconds (default is 1000)
      */
     public static void setCleanerSleep(long cleanerSleep) {
-        M2CP.cleanerSleep = cleanerSleep;
+        defaults.setCleanerSleep(cleanerSleep);
     }
 
     /**
      * Sets a connection max lease time before it gets reclaimed by the cleaner. The property will not take effect
-     * if a pool instance has already been created
+     * on pool instances that have already been created
      * @param maxTimeLease in milliseconds (default is 1000)
      */
     public static void setMaxTimeLease(long maxTimeLease) {
-        M2CP.maxTimeLease = maxTimeLease;
+        defaults.setMaxTimeLease(maxTimeLease);
     }
 
     /**
      * Sets pool max idle time before it gets assigned to shut down by the cleaner. The property will not take effect
-     * if a pool instance has already been created
+     * on pool instances that have already been created
      * @param maxTimeIdle in milliseconds (default is 1000)
      */
     public static void setMaxTimeIdle(long maxTimeIdle) {
-        M2CP.maxTimeIdle = maxTimeIdle;
+        defaults.setMaxTimeIdle(maxTimeIdle);
+    }
+
+    /**
+     * Sets max time a caller waits for an available connection when all connections in the pool are leased. If no
+     * connection gets returned within this time, the caller gets an exception. Zero means that the caller fails
+     * immediately. The property will not take effect on pool instances that have already been created
+     * @param connectionTimeout in milliseconds (default is 1000)
+     */
+    public static void setConnectionTimeout(long connectionTimeout) {
+        defaults.setConnectionTimeout(connectionTimeout);
+    }
+
+    /**
+     * Sets number of threads opening connections in parallel when a new pool instance gets populated. The property
+     * will not take effect on pool instances that have already been created
+     * @param warmupThreads number of threads (default is 4)
+     */
+    public static void setWarmupThreads(int warmupThreads) {
+        defaults.setWarmupThreads(warmupThreads);
+    }
+
+    /**
+     * Sets number of connections that must be open before a new pool instance starts leasing them. The rest of
+     * the pool gets populated in the background. The property will not take effect on pool instances that have
+     * already been created
+     * @param warmupMinReady number of connections, zero to wait for the whole pool (default is 0)
+     */
+    public static void setWarmupMinReady(int warmupMinReady) {
+        defaults.setWarmupMinReady(warmupMinReady);
+    }
+
+    /**
+     * Sets min number of open connections kept in the pool even when they are idle. The pool opens this many
+     * connections on start, grows on demand up to the pool size, and closes connections beyond this number one by
+     * one after they have been idle for the idle timeout. The property will not take effect on pool instances that
+     * have already been created
+     * @param minIdle min number of open connections, negative to keep the pool at its full size (default is -1)
+     */
+    public static void setMinIdle(int minIdle) {
+        defaults.setMinIdle(minIdle);
+    }
+
+    /**
+     * Sets max time a single connection beyond the min idle number may stay idle before it gets closed by the
+     * cleaner. The property will not take effect on pool instances that have already been created
+     * @param idleTimeout in milliseconds (default is 10000)
+     */
+    public static void setIdleTimeout(long idleTimeout) {
+        defaults.setIdleTimeout(idleTimeout);
+    }
+
+    /**
+     * Sets max number of idle prepared statements cached per connection, so that statements prepared over and over
+     * again are parsed and planned by the database once per connection. The property will not take effect on pool
+     * instances that have already been created
+     * @param statementCacheSize number of statements, zero to disable the cache (default is 0)
+     */
+    public static void setStatementCacheSize(int statementCacheSize) {
+        defaults.setStatementCacheSize(statementCacheSize);
+    }
+
+    /**
+     * Sets lease time after which a lease gets reported as a possible connection leak, along with the stack trace
+     * captured when the connection was leased. The property will not take effect on pool instances that have
+     * already been created
+     * @param leakDetectionThreshold in milliseconds, zero to disable leak detection (default is 0)
+     */
+    public static void setLeakDetectionThreshold(long leakDetectionThreshold) {
+        defaults.setLeakDetectionThreshold(leakDetectionThreshold);
+    }
+
+    /**
+     * Sets sample rate of the stack traces captured for leak detection. The property will not take effect on pool
+     * instances that have already been created
+     * @param leakTraceSampleRate one in how many leases gets its stack trace captured (default is 1)
+     */
+    public static void setLeakTraceSampleRate(int leakTraceSampleRate) {
+        defaults.setLeakTraceSampleRate(leakTraceSampleRate);
+    }
+
+    /**
+     * Sets warn-only mode of leak detection, in which a lease exceeding max lease time is reported instead of being
+     * reclaimed. The property will not take effect on pool instances that have already been created
+     * @param leakWarnOnly true to only report expired leases; false to reclaim them (default is false)
+     */
+    public static void setLeakWarnOnly(boolean leakWarnOnly) {
+        defaults.setLeakWarnOnly(leakWarnOnly);
+    }
+
+    /**
+     * Sets max time a connection is kept open since it has been created. A leased connection is replaced once it
+     * is returned, an idle one by the cleaner. Each connection gets up to a tenth of this time taken off at random.
+     * The property will not take effect on pool instances that have already been created
+     * @param maxLifetime in milliseconds, zero to keep connections open for as long as they work (default is 0)
+     */
+    public static void setMaxLifetime(long maxLifetime) {
+        defaults.setMaxLifetime(maxLifetime);
+    }
+
+    /**
+     * Sets time since a connection was last returned or validated, within which it is leased without being
+     * validated. Zero means that each connection is validated on every lease. The property will not take effect on
+     * pool instances that have already been created
+     * @param validationWindow in milliseconds (default is 500)
+     */
+    public static void setValidationWindow(long validationWindow) {
+        defaults.setValidationWindow(validationWindow);
+    }
+
+    /**
+     * Sets max time to wait for a connection to be validated, after which it is considered broken. The property
+     * will not take effect on pool instances that have already been created
+     * @param validationTimeout in seconds (default is 1)
+     */
+    public static void setValidationTimeout(int validationTimeout) {
+        defaults.setValidationTimeout(validationTimeout);
+    }
+
+    /**
+     * Sets time after which an idle connection gets validated in the background and replaced if broken. Doubles as
+     * a keepalive that keeps firewalls and the database from dropping idle connections. Zero disables background
+     * validation outside keep-warm mode. The property will not take effect on pool instances that have already
+     * been created
+     * @param validationInterval in milliseconds (default is 0)
+     */
+    public static void setValidationInterval(long validationInterval) {
+        defaults.setValidationInterval(validationInterval);
+    }
+
+    /**
+     * Sets max number of idle connections validated in the background in one cleaner cycle. The property will not
+     * take effect on pool instances that have already been created
+     * @param validationBatchSize number of connections (default is 4)
+     */
+    public static void setValidationBatchSize(int validationBatchSize) {
+        defaults.setValidationBatchSize(validationBatchSize);
+    }
+
+    /**
+     * Sets query used to validate connections, e.g. "SELECT 1", instead of the validation of the driver. The
+     * property will not take effect on pool instances that have already been created
+     * @param testQuery SQL query, or null to let the driver validate connections (default is null)
+     */
+    public static void setTestQuery(String testQuery) {
+        defaults.setTestQuery(testQuery);
     }
 
     /**
-     * Sets pool size, i.e. max number of open connections in this pool. The property will not take effect if a pool
-     * instance has already been created
-     * @param poolSize max number of open connections in this pool (default is 10)
+     * Sets keep-warm mode of the pool. In this mode the pool is never shut down for being idle. Instead, each
+     * connection that has been idle longer than the validation interval, or max idle time if no interval is set,
+     * gets validated by the cleaner, and gets replaced if it turns out to be broken, so that the next caller after a
+     * quiet period gets a live connection right away. The property will not take effect on pool instances that
+     * have already been created
+     * @param keepWarm true to keep the pool warm; false to shut it down when idle (default is false)
+     */
+    public static void setKeepWarm(boolean keepWarm) {
+        defaults.setKeepWarm(keepWarm);
+    }
+
+    /**
+     * Sets whether each new pool instance registers its {@link M2CPPoolMXBean} with the platform MBean server. The
+     * property will not take effect on pool instances that have already been created
+     * @param jmxEnabled true to register the MXBean; false otherwise (default is true)
+     */
+    public static void setJmxEnabled(boolean jmxEnabled) {
+        defaults.setJmxEnabled(jmxEnabled);
+    }
+
+    /**
+     * Sets listeners registered with each new pool instance from its creation. The property will not take effect
+     * on pool instances that have already been created
+     * @param listeners listeners to be notified of the events of the pool (default is none)
+     */
+    public static void setListeners(M2CPListener... listeners) {
+        defaults.setListeners(listeners);
+    }
+
+    /**
+     * Sets whether each new pool instance dispatches events to its listeners on the listener thread instead of
+     * calling them directly. The property will not take effect on pool instances that have already been created
+     * @param asyncListeners true to dispatch events on the listener thread; false to call listeners directly
+     * (default is false)
+     */
+    public static void setAsyncListeners(boolean asyncListeners) {
+        defaults.setAsyncListeners(asyncListeners);
+    }
+
+    /**
+     * Sets pool size, i.e. max number of open connections in the pool. The property will not take effect on pool
+     * instances that have already been created
+     * @param poolSize max number of open connections in the pool (default is 10)
      */
     public static void setPoolSize(int poolSize) {
-        if (pool == null) {
-            M2CP.poolSize = poolSize;
-        }
+        defaults.setPoolSize(poolSize);
     }
 
     /**
      * The starter method to be called from outside the package. This method is used to get the wrapper object from
-     * the pool, delegating the operation to a {@link #leaseConnection()} method. Before the method gets called this
-     * method checks if the pool was actually created, and if not, instantiates the pool in the first place
+     * the pool instance of the given datasource, delegating the operation to a {@link #leaseConnection(long)}
+     * method. If the pool instance was not created yet, the method instantiates it in the first place via
+     * {@link #getPool(String, String, String)}. If all connections are leased, the caller waits for the connection
+     * timeout of the pool instance
      * @param url string to access the database
      * @param username string to access the database
      * @param password string to access the database
      * @return an instance of {@link M2CPWrapper} class
      * @throws SQLException if the invoked {@link #getRealConnection()} fails to acquire connection
+     * @see #setConnectionTimeout(long)
      */
     public static Connection getConnection(String url, String username, String password) throws SQLException {
-        synchronized (KEY) {
-            if (pool == null) {
+        return getConnection(url, username, password, -1);
+    }
+
+    /**
+     * The starter method to be called from outside the package, same as {@link #getConnection(String, String,
+     * String)}, except that the caller explicitly sets max time to wait for an available connection
+     * @param url string to access the database
+     * @param username string to access the database
+     * @param password string to access the database
+     * @param timeout max time to wait in milliseconds, zero to fail immediately if no connection is available
+     * @return an instance of {@link M2CPWrapper} class
+     * @throws SQLException if the invoked {@link #getRealConnection()} fails to acquire connection
+     */
+    public static Connection getConnection(String url, String username, String password, long timeout)
+            throws SQLException {
+        M2CPKey key = new M2CPKey(url, credentials(username, password));
+        while (true) {
+            M2CP current = getPool(key, defaults);
+
+            // Null result means the pool has been shut down concurrently, so retry with a fresh instance
+            Connection connection = current.leaseConnection(timeout < 0 ? current.getConnectionTimeout() : timeout);
+            if (connection != null) {
+                return connection;
+            }
+        }
+    }
+
+    /**
+     * Gets the pool instance of the given datasource, creating it with the default settings if it does not exist
+     * @param url string to access the database
+     * @param username string to access the database
+     * @param password string to access the database
+     * @return pool instance of the datasource
+     * @throws SQLException if the invoked {@link #getRealConnection()} fails to acquire connection
+     */
+    public static M2CP getPool(String url, String username, String password) throws SQLException {
+        return getPool(new M2CPKey(url, credentials(username, password)), defaults);
+    }
+
+    /**
+     * Gets the pool instance of the given datasource, creating it with the given settings if it does not exist.
+     * The settings are ignored if the pool instance is already running
+     * @param url string to access the database
+     * @param properties connection properties to access the database, e.g. user and password
+     * @param config settings for a new pool instance
+     * @return pool instance of the datasource
+     * @throws SQLException if the invoked {@link #getRealConnection()} fails to acquire connection
+     */
+    public static M2CP getPool(String url, Properties properties, M2CPConfig config) throws SQLException {
+        return getPool(new M2CPKey(url, properties), config);
+    }
+
+    /**
+     * This method looks the pool instance up in the registry, and if there is none, registers a placeholder for it
+     * and creates a new pool instance along with its cleaner. The pool instance gets created and populated outside
+     * of any lock, so a slow database holds up the callers of its own datasource only, which wait for the placeholder
+     * to be completed, while other datasources and shutdowns go on meanwhile. If the creation fails, the placeholder
+     * leaves the registry, so the next caller tries again
+     * @param key datasource of the pool instance
+     * @param config settings for a new pool instance, copied before use, or null to apply the default settings
+     * @return pool instance of the datasource
+     * @throws SQLException if the invoked {@link #getRealConnection()} fails to acquire connection
+     */
+    static M2CP getPool(M2CPKey key, M2CPConfig config) throws SQLException {
+        CompletableFuture<M2CP> pending = pools.get(key);
+        if (pending == null) {
+            CompletableFuture<M2CP> created = new CompletableFuture<>();
+            pending = pools.putIfAbsent(key, created);
+            if (pending == null) {
+                return createPool(key, config, created);
+            }
+        }
+        return awaitPool(pending);
+    }
+
+    /**
+     * This method creates a new pool instance for the placeholder registered by the caller, and completes the
+     * placeholder with it. On failure the placeholder is removed from the registry first, and then completed with
+     * the failure, so that the callers waiting for it get the same failure
+     * @param key datasource of the pool instance
+     * @param config settings for a new pool instance, copied before use, or null to apply the default settings
+     * @param created placeholder registered for the pool instance
+     * @return pool instance of the datasource
+     * @throws SQLException if the invoked {@link #getRealConnection()} fails to acquire connection
+     */
+    private static M2CP createPool(M2CPKey key, M2CPConfig config, CompletableFuture<M2CP> created)
+            throws SQLException {
+        try {
+            M2CPConfig settings = (config == null ? defaults : config).copy();
+            settings.validate();
+
+            // If OK, create new pool
+            M2CP current = new M2CP(key, settings);
+
+            // Schedule maintenance of this pool on the shared scheduler
+            current.cleaner.start();
+            if (settings.isJmxEnabled()) {
+                current.management.register();
+            }
+
+            created.complete(current);
+            return current;
+        } catch (Throwable e) {
+            pools.remove(key, created);
+            created.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * This method waits for a pool instance being created by another thread
+     * @param pending placeholder registered for the pool instance
+     * @return pool instance of the datasource
+     * @throws SQLException if the creation of the pool instance has failed with {@link SQLException}
+     * @throws M2CPException if the creation of the pool instance has failed otherwise, or the caller is interrupted
+     */
+    private static M2CP awaitPool(CompletableFuture<M2CP> pending) throws SQLException {
+        try {
+            return pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new M2CPException("Failed to get pool: interrupted while waiting for pool creation");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                SQLException failure = (SQLException) cause;
+                throw new SQLException(failure.getMessage(), failure.getSQLState(), failure.getErrorCode(), failure);
+            }
+            throw new M2CPException("Failed to initialize pool: " + cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * This method puts user name and password into connection properties, skipping the missing ones
+     * @param username string to access the database
+     * @param password string to access the database
+     * @return connection properties
+     */
+    static Properties credentials(String username, String password) {
+        Properties properties = new Properties();
+        if (username != null) {
+            properties.setProperty("user", username);
+        }
+        if (password != null) {
+            properties.setProperty("password", password);
+        }
+        return properties;
+    }
 
-                M2CP.url = url;
-                M2CP.username = username;
-                M2CP.password = password;
+    /**
+     * Gets max time a caller of this pool instance waits for an available connection by default
+     * @return time in milliseconds
+     */
+    long getConnectionTimeout() {
+        return config.getConnectionTimeout();
+    }
 
-                // Zero or negative values are not accepted
-                if (cleanerSleep < 1 || maxTimeLease < 1 || maxTimeIdle < 1) {
-                    throw new M2CPException("Failed to initialize cleaner: "
-                            + "time values must be positive integers higher than zero");
+    /**
+     * This method is used to get the wrapper object from this pool instance. If all connections are leased, the
+     * caller waits for the connection timeout of this pool instance
+     * @return an instance of {@link M2CPWrapper} class
+     * @throws M2CPException if no connection becomes available in time, or this pool instance has been shut down
+     */
+    public Connection getConnection() {
+        return getConnection(config.getConnectionTimeout());
+    }
+
+    /**
+     * This method is used to get the wrapper object from this pool instance, waiting for the given time if all
+     * connections are leased
+     * @param timeout max time to wait in milliseconds, zero to fail immediately if no connection is available
+     * @return an instance of {@link M2CPWrapper} class
+     * @throws M2CPException if no connection becomes available in time, or this pool instance has been shut down
+     */
+    public Connection getConnection(long timeout) {
+        Connection connection = leaseConnection(timeout);
+        if (connection == null) {
+            throw new M2CPException("Failed to lease connection: pool has been shut down");
+        }
+        return connection;
+    }
+
+    /**
+     * Adds a listener to this pool instance. Listeners that must be notified of the connections opened on warm-up
+     * are to be set in the config instead
+     * @param listener listener to be notified of the events of this pool instance
+     * @see M2CPConfig#setListeners(M2CPListener...)
+     */
+    public void addListener(M2CPListener listener) {
+        listeners.add(Objects.requireNonNull(listener, "listener"));
+    }
+
+    /**
+     * Removes a listener from this pool instance
+     * @param listener listener to be no longer notified
+     */
+    public void removeListener(M2CPListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Gets listeners of this pool instance
+     * @return dispatcher of the events of this pool instance
+     */
+    M2CPListeners getListeners() {
+        return listeners;
+    }
+
+    /**
+     * Gets statistics of this pool instance
+     * @return an instance of {@link M2CPStatistics} class
+     */
+    public M2CPStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * The method retrieves the first available instance of a wrapper from the pool and returns it to the user app.
+     * Each wrapper is claimed by a compare-and-set on its state, so concurrent callers never get the same wrapper
+     * and never block each other. If all wrappers are leased, the caller is parked in the queue of waiters until
+     * a wrapper is handed to it by {@link #returnConnection(M2CPWrapper)}, or until the timeout elapses. While
+     * there are waiters in the queue, a new caller joins the queue straight away instead of scanning the list, as
+     * every returned wrapper goes to the oldest waiter anyway. This keeps the pool fair under saturation. A caller
+     * with zero timeout can't wait, so it scans the list regardless and fails only if no wrapper is idle. If the
+     * pool has not reached its max size yet, each caller that finds no idle wrapper makes the pool open one more
+     * connection in the background, which gets handed to the oldest waiter once it is ready. Before leasing the
+     * wrapper instance, the method validates a wrapped connection object that has been idle longer than the
+     * validation window. A broken one is replaced by calling {@link #removeWrapper(M2CPWrapper, boolean)} method
+     * and the method carries on with the next wrapper. If no wrapper becomes available in time, the method throws
+     * unchecked exception
+     * @param timeout max time to wait in milliseconds
+     * @return an instance of {@link M2CPWrapper} class, or null if this pool instance has been shut down
+     */
+    Connection leaseConnection(long timeout) {
+        long started = nanoTime();
+        long deadline = started + MILLISECONDS.toNanos(timeout);
+
+        while (true) {
+            M2CPWrapper wrapper = waiters.isEmpty() || timeout <= 0 ? pollWrapper() : null;
+            if (wrapper == null && !shutdown) {
+                // Open one more connection, if the pool has room, and wait for it or for a returned one
+                grow();
+                if (timeout > 0) {
+                    wrapper = awaitWrapper(deadline);
                 }
+            }
 
-                if (poolSize < 1 || poolSize > 100) {
-                    throw new M2CPException("Failed to initialize pool: "
-                            + "pool size must be a positive integer between 1 and 100");
+            if (wrapper == null) {
+                if (shutdown) {
+                    return null;
                 }
+                statistics.recordTimeout();
+                listeners.exhausted(timeout);
+                throw new M2CPException("Failed to lease connection: no available connections");
+            }
 
-                // If OK, create new pool
-                pool = new M2CP();
+            if (!isBroken(wrapper)) {
+                // A sample of the leases watched for leaks gets its stack trace captured
+                if (leaseTimer.getLeakThreshold() > 0) {
+                    wrapper.setLeaseTrace(sampleLeaseTrace());
+                }
+                // Stamping the lease registers it with the lease timer
+                long leased = currentTimeMillis();
+                wrapper.setLastTimeLeased(leased);
+                leaseTimer.leaseStarted(leased);
 
-                // Assign new utility instance to this pool and run it in a separate thread
-                new M2CPCleaner(pool, cleanerSleep, maxTimeLease, maxTimeIdle).start();
+                long leasedNanos = nanoTime();
+                wrapper.setLeaseStartNanos(leasedNanos);
+                statistics.recordWaitTime(leasedNanos - started);
+                listeners.leased(leasedNanos - started);
+                return wrapper;
             }
-            return pool.leaseConnection();
         }
     }
 
     /**
-     * The method retrieves the first available instance of a wrapper from the pool and returns it to the user app.
-     * Before leasing the wrapper instance, the method checks if a wrapped connection object is not closed and is
-     * still valid. Otherwise the method calls {@link #removeWrapper(M2CPWrapper, boolean)} method to replace the
-     * wrapper. If there are no available wrappers, the method throws unchecked exception
-     * @return an instance of {@link M2CPWrapper} class
+     * This method captures the stack trace of the calling thread for leak detection, for one in sample rate leases
+     * @return an instance of {@link M2CPException} class holding the stack trace, or null if the lease is skipped
+     */
+    private M2CPException sampleLeaseTrace() {
+        int sampleRate = config.getLeakTraceSampleRate();
+        if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return null;
+        }
+        return new M2CPException("Connection leased by thread " + Thread.currentThread().getName());
+    }
+
+    /**
+     * This method claims an idle wrapper. The wrapper last returned by the calling thread is tried first with a
+     * single compare-and-set, which makes the common lease-use-return-lease pattern practically uncontended. Only
+     * if that wrapper has been taken by another thread, the method scans the list and claims the first idle one
+     * @return an instance of {@link M2CPWrapper} class in the leased state, or null if all wrappers are leased
      */
-    Connection leaseConnection() {
+    private M2CPWrapper pollWrapper() {
+        WeakReference<M2CPWrapper> hint = lastReturned.get();
+        if (hint != null) {
+            M2CPWrapper wrapper = hint.get();
+            if (wrapper != null && wrapper.tryLease()) {
+                statistics.recordThreadHintLease();
+                return wrapper;
+            }
+        }
+
         for (M2CPWrapper wrapper : wrapperList) {
-            if (!wrapper.isLeased()) {
-                try {
-                    // Replace the wrapper if its payload is closed or invalid
-                    if (wrapper.isClosed() || wrapper.getWarnings() != null) {
-                        removeWrapper(wrapper, true);
+            if (wrapper.tryLease()) {
+                statistics.recordScanLease();
+                return wrapper;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * This method parks the calling thread in the queue of waiters until a wrapper is handed to it, the deadline
+     * passes or the pool gets shut down. After joining the queue the waiter scans the list once more, as a wrapper
+     * could have been released right before the waiter became visible to the returning thread
+     * @param deadline time in nanoseconds, as given by {@link System#nanoTime()}
+     * @return an instance of {@link M2CPWrapper} class in the leased state, or null if none became available
+     */
+    private M2CPWrapper awaitWrapper(long deadline) {
+        M2CPWaiter waiter = new M2CPWaiter(Thread.currentThread());
+        waiters.offer(waiter);
+        waitingThreads.incrementAndGet();
+
+        try {
+            while (true) {
+                M2CPWrapper handed = waiter.getWrapper();
+                if (handed != null) {
+                    return handOver(handed);
+                }
+
+                M2CPWrapper wrapper = pollWrapper();
+                if (wrapper != null) {
+                    if (waiter.cancel()) {
+                        return wrapper;
                     }
-                } catch (SQLException e) {
-                    e.printStackTrace();
+                    // A wrapper has been handed meanwhile, so pass the scanned one on
+                    offerWrapper(wrapper);
+                    return handOver(waiter.getWrapper());
+                }
+
+                long remaining = deadline - nanoTime();
+                if (remaining <= 0 || shutdown) {
+                    return waiter.cancel() ? null : handOver(waiter.getWrapper());
+                }
+
+                LockSupport.parkNanos(this, remaining);
+
+                if (Thread.interrupted()) {
+                    if (waiter.cancel()) {
+                        Thread.currentThread().interrupt();
+                        throw new M2CPException("Failed to lease connection: interrupted while waiting");
+                    }
+                    Thread.currentThread().interrupt();
+                    return handOver(waiter.getWrapper());
                 }
-                wrapper.setLastTimeLeased(currentTimeMillis());
-                wrapper.setLeased(true);
-                return wrapper;
             }
+        } finally {
+            waiters.remove(waiter);
+            waitingThreads.decrementAndGet();
         }
-        throw new M2CPException("Failed to lease connection: no available connections");
     }
 
     /**
-     * This method is used to return the leased wrapper instance back to the pool. The method also sets auto-commit
-     * property to default. Two nested if-statements are required to prevent errors when the user app has exceeded
-     * lease and tries to return a wrapper that has already been reclaimed by the cleaner. In this case the method
-     * simply ignores an overdue wrapper. All other cases indicate that the user app is trying to return a wrapper
-     * that is not part of this pool instance, which is addressed by throwing an unchecked exception
+     * This method accounts for a wrapper received by a waiter through a direct hand-off
+     * @param wrapper an instance of {@link M2CPWrapper} class handed to the waiter
+     * @return the same wrapper
+     */
+    private M2CPWrapper handOver(M2CPWrapper wrapper) {
+        statistics.recordHandoffLease();
+        return wrapper;
+    }
+
+    /**
+     * This method makes a wrapper owned by the calling thread available again. The wrapper is handed directly to
+     * the oldest waiter, and only if there are no waiters it is switched back to the idle state. A caller may join
+     * the queue right after it has been found empty and scan the list right before the release, in which case it
+     * would park while the wrapper sits idle. So the queue is checked once more after the release, and if a waiter
+     * has shown up, the wrapper is leased again by a compare-and-set and handed over, unless another caller has
+     * taken it in the meantime
+     * @param wrapper an instance of {@link M2CPWrapper} class in the leased state
+     */
+    private void offerWrapper(M2CPWrapper wrapper) {
+        do {
+            M2CPWaiter waiter;
+            while ((waiter = waiters.poll()) != null) {
+                if (waiter.offer(wrapper)) {
+                    return;
+                }
+            }
+            wrapper.tryRelease();
+        } while (!waiters.isEmpty() && wrapper.tryLease());
+    }
+
+    /**
+     * This method checks a freshly leased wrapper and replaces it if its payload is broken or has outlived its max
+     * lifetime. A wrapper returned or validated within the validation window is trusted without any check, so that
+     * connections in steady use are leased without extra round-trips to the database
+     * @param wrapper an instance of {@link M2CPWrapper} class owned by the calling thread
+     * @return true if the wrapper has been removed from the pool; false if it can be handed to the user app
+     */
+    private boolean isBroken(M2CPWrapper wrapper) {
+        long now = currentTimeMillis();
+        long lastUsed = Math.max(wrapper.getLastTimeReturned(), wrapper.getLastTimeValidated());
+        if (!wrapper.isExpired(now) && (now - lastUsed < config.getValidationWindow() || validate(wrapper))) {
+            return false;
+        }
+
+        wrapper.markRemoved();
+        try {
+            removeWrapper(wrapper, true);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return true;
+    }
+
+    /**
+     * This method validates the connection of a wrapper owned by the calling thread with the test query or the
+     * validation of the driver, and stamps the time of a successful validation on the wrapper
      * @param wrapper an instance of {@link M2CPWrapper} class
-     * @throws SQLException if {@link Connection#setAutoCommit(boolean)} fails
+     * @return true if the connection is alive; false otherwise
+     */
+    private boolean validate(M2CPWrapper wrapper) {
+        if (!wrapper.validateRealConnection(config.getValidationTimeout(), config.getTestQuery())) {
+            listeners.validationFailed();
+            return false;
+        }
+        wrapper.setLastTimeValidated(currentTimeMillis());
+        return true;
+    }
+
+    /**
+     * This method is used to return the leased wrapper instance back to the pool. The method also closes the
+     * statements left open by the user app and resets the session properties changed by the user app to their
+     * defaults, and replaces a wrapper that fails to be cleaned up.
+     * The wrapper is handed directly to the oldest waiting caller, if there is one. A wrapper that has already been
+     * reclaimed by the lease timer (i.e. the user app has exceeded lease) is simply ignored. The return and the reclaim
+     * race for the lease by a compare-and-set on its stamp, so once the return has won the wrapper can't be reclaimed
+     * while it is being cleaned up and passed on. If this pool instance has been shut down while the wrapper was
+     * leased, or the wrapper has outlived its max lifetime, the wrapper is removed instead of being made available
+     * again. All other cases indicate that the user app is trying to return a wrapper that is not leased, which is
+     * addressed by throwing an unchecked exception
+     * @param wrapper an instance of {@link M2CPWrapper} class
+     * @throws SQLException if {@link #removeWrapper(M2CPWrapper, boolean)} fails
      */
     void returnConnection(M2CPWrapper wrapper) throws SQLException {
-        if (wrapper.isLeased()) {
-            // Nested if-statements are required to address overdue wrappers
-            if (wrapperList.contains(wrapper)) {
-                wrapper.setLastTimeReturned(currentTimeMillis());
-                wrapper.setAutoCommit(true);
-                wrapper.setLeased(false);
-            }
-        } else {
+        // Clearing the stamp cancels the lease with the lease timer, unless the timer has reclaimed it already
+        long leased = wrapper.getLastTimeLeased();
+        if (!wrapper.isLeased() || !wrapper.tryEndLease(leased)) {
+            if (wrapper.isRemoved() || wrapper.isReclaimed()) {
+                // Overdue wrapper has already been reclaimed
+                return;
+            }
             throw new M2CPException("Failed to return connection: connection is not part of this pool");
         }
+        long held = nanoTime() - wrapper.getLeaseStartNanos();
+        statistics.recordHoldTime(held);
+        listeners.returned(held);
+        wrapper.setLastTimeReturned(currentTimeMillis());
+
+        // Remember the wrapper for the next lease by this thread, reusing the reference if it is already there
+        WeakReference<M2CPWrapper> hint = lastReturned.get();
+        if (hint == null || hint.get() != wrapper) {
+            lastReturned.set(new WeakReference<>(wrapper));
+        }
+
+        if (shutdown) {
+            if (wrapper.tryReclaim()) {
+                removeWrapper(wrapper, false);
+            }
+            return;
+        }
+        if (wrapper.isExpired(wrapper.getLastTimeReturned())) {
+            if (wrapper.tryReclaim()) {
+                removeWrapper(wrapper, true);
+            }
+            return;
+        }
+
+        // A wrapper that can't be cleaned up must not be passed on to the next borrower
+        try {
+            wrapper.closeStatements();
+            wrapper.resetSessionState();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            if (wrapper.tryReclaim()) {
+                removeWrapper(wrapper, true);
+            }
+            return;
+        }
+        offerWrapper(wrapper);
+    }
+
+    /**
+     * Checks if this pool instance has been shut down
+     * @return true if the pool instance has been shut down; false otherwise
+     */
+    boolean isShutdown() {
+        return shutdown;
     }
 
     /**
@@ -187,50 +874,401 @@ public final class M2CP
     }
 
     /**
-     * This method removes a wrapper by closing the associated connection and removing the wrapper from the list.
-     * Optionally the caller may indicate that the list must be repopulated after the wrapper has been removed
+     * This method removes a wrapper by removing it from the list and closing the associated connection.
+     * Optionally the caller may indicate that the list must be repopulated after the wrapper has been removed.
+     * Both repopulation and closing are carried out on the connector threads, so the caller, which may well be the
+     * shared scheduler, neither waits for a new connection to be opened nor for the old one to be closed. The destroy
+     * event is fired once the connection has actually been closed. The caller is expected to have switched the
+     * wrapper to the removed state beforehand
      * @param wrapper an instance of {@link M2CPWrapper} class to be removed
      * @param repopulate option if the list must be repopulated with fresh wrappers
-     * @throws SQLException if {@link M2CPWrapper#closeRealConnection()} fails to close the connection
+     * @throws SQLException if the connector threads are gone and {@link M2CPWrapper#closeRealConnection()} fails
+     * to close the connection
      */
     void removeWrapper(M2CPWrapper wrapper, boolean repopulate) throws SQLException {
-        wrapper.closeRealConnection();
         wrapperList.remove(wrapper);
+        statistics.recordDestroyedConnection();
 
+        // Schedule the replacement before closing, so that a slow close does not delay it
         if (repopulate) {
-            repopulateWrapperList();
+            replenish();
+        }
+        if (!executeOnConnector(() -> closeWrapper(wrapper))) {
+            // The connector has terminated after shutdown, so the caller closes the connection itself
+            try {
+                wrapper.closeRealConnection();
+            } finally {
+                listeners.destroyed();
+            }
         }
     }
 
     /**
-     * This method shuts down this pool instance by first checking that the pool exists and the list of wrappers is
-     * not empty, and then removing each wrapper in the list by calling {@link #removeWrapper(M2CPWrapper, boolean)}
-     * method. When the list is empty, the method sets current pool reference to null
+     * This method closes the connection of a removed wrapper on a connector thread and notifies the listeners once
+     * the close has completed, whether it has succeeded or not
+     * @param wrapper an instance of {@link M2CPWrapper} class that has been removed
+     */
+    private void closeWrapper(M2CPWrapper wrapper) {
+        try {
+            wrapper.closeRealConnection();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            listeners.destroyed();
+        }
+    }
+
+    /**
+     * This method shuts down this pool instance by removing it from the registry, so that new callers create a fresh
+     * instance, waking up the waiting callers, and then removing each idle wrapper in the list by calling
+     * {@link #removeWrapper(M2CPWrapper, boolean)} method. The connector threads close the removed connections and
+     * skip connections that are yet to be opened, and terminate afterwards. Wrappers that are still leased get
+     * removed when the user app returns them. The method may be called repeatedly to retire wrappers returned since
+     * the previous call
      * @throws SQLException if {@link #removeWrapper(M2CPWrapper, boolean)} fails
      */
-    void shutdown() throws SQLException {
-        if (pool != null && !(wrapperList.isEmpty())) {
-            for (M2CPWrapper wrapper : wrapperList) {
+    public void shutdown() throws SQLException {
+        shutdown = true;
+        // A placeholder in the registry is only ever completed with a pool instance, as a failed one leaves it first
+        pools.computeIfPresent(key, (k, pending) -> pending.getNow(null) == this ? null : pending);
+        management.unregister();
+        cleaner.stop();
+
+        // Let the waiters retry with a fresh pool instance
+        for (M2CPWaiter waiter : waiters) {
+            waiter.wakeUp();
+        }
+
+        for (M2CPWrapper wrapper : wrapperList) {
+            if (wrapper.tryRetire()) {
                 removeWrapper(wrapper, false);
             }
-            pool = null;
         }
+
+        // Let the connector finish closing connections, while new tasks are closed inline from now on
+        connector.shutdown();
     }
 
     /**
-     * The method repopulates the list of wrappers by creating new instances of the wrapper class. To determine the
-     * number of wrappers to be added, the method checks divergence between the requested size of the pool and the
-     * actual size of the current list of wrappers. Divergence other than zero means that some wrappers were removed,
-     * and the list must be repopulated. If there is a divergence, the method will repopulate the list with fresh
-     * wrappers while not exceeding the requested pool size
-     * @throws SQLException if the method fails to get connection
+     * This method populates a new pool instance by opening connections in parallel on a bounded number of threads.
+     * Only the min number of connections is opened, as the pool grows further on demand. The method returns as soon
+     * as the configured minimum of wrappers is ready, and the remaining ones are added to the list in the background
+     * as they get created. If so many connections fail that the minimum can't be reached, the method discards
+     * whatever has been created and rethrows the first failure
+     * @throws SQLException if the method fails to get the minimum number of connections
      */
-    private void repopulateWrapperList() throws SQLException {
-        int divergence = poolSize - wrapperList.size();
-        if (divergence != 0) {
-            for (int i = 0; i < divergence; i++) {
-                wrapperList.add(new M2CPWrapper(getRealConnection()));
+    private void warmUp() throws SQLException {
+        int minSize = getMinSize();
+        int warmupMinReady = config.getWarmupMinReady();
+        int minReady = warmupMinReady < 1 ? minSize : Math.min(warmupMinReady, minSize);
+        CompletionService<M2CPWrapper> completionService = new ExecutorCompletionService<>(connector);
+
+        pendingWrappers.addAndGet(minSize);
+        for (int i = 0; i < minSize; i++) {
+            completionService.submit(this::createWrapper);
+        }
+
+        int ready = 0;
+        int failed = 0;
+        SQLException failure = null;
+
+        try {
+            while (ready < minReady) {
+                try {
+                    completionService.take().get();
+                    ready++;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof SQLException
+                                ? (SQLException) e.getCause() : new SQLException(e.getCause());
+                    }
+                    if (++failed > minSize - minReady) {
+                        // Discard whatever has been created, including connections still being opened
+                        shutdown();
+                        throw failure;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            shutdown();
+            throw new M2CPException("Failed to initialize pool: interrupted while opening connections");
+        }
+    }
+
+    /**
+     * This method opens a new connection, wraps it and adds the wrapper to the list. The caller is expected to
+     * have accounted for the wrapper in the counter of pending wrappers beforehand. No connection is opened once
+     * this pool instance has been shut down
+     * @return an instance of {@link M2CPWrapper} class added to the list
+     * @throws SQLException if the method fails to get connection, or this pool instance has been shut down
+     */
+    private M2CPWrapper createWrapper() throws SQLException {
+        try {
+            if (shutdown) {
+                throw new SQLException("Failed to open connection: pool has been shut down");
             }
+            M2CPWrapper wrapper = new M2CPWrapper(getRealConnection(), this, getExpiryTime(),
+                    config.getStatementCacheSize());
+            statistics.recordCreatedConnection();
+            addWrapper(wrapper);
+            return wrapper;
+        } finally {
+            pendingWrappers.decrementAndGet();
+        }
+    }
+
+    /**
+     * This method picks the time after which a new wrapper gets replaced. Up to a tenth of the max lifetime is taken
+     * off at random, so that wrappers created in one burst, e.g. on warm-up, do not expire in one burst as well
+     * @return time in milliseconds, zero if wrappers never expire
+     */
+    private long getExpiryTime() {
+        long maxLifetime = config.getMaxLifetime();
+        if (maxLifetime == 0) {
+            return 0;
+        }
+        return currentTimeMillis() + maxLifetime - ThreadLocalRandom.current().nextLong(maxLifetime / 10 + 1);
+    }
+
+    /**
+     * This method adds a fresh wrapper to the list and offers it to the waiting callers first. A wrapper created
+     * after this pool instance has been shut down gets removed straight away
+     * @param wrapper an instance of {@link M2CPWrapper} class in the idle state
+     * @throws SQLException if {@link #removeWrapper(M2CPWrapper, boolean)} fails
+     */
+    private void addWrapper(M2CPWrapper wrapper) throws SQLException {
+        wrapperList.add(wrapper);
+        publishWrapper(wrapper);
+    }
+
+    /**
+     * This method makes a wrapper that has just become idle without being returned, e.g. a fresh wrapper or a
+     * wrapper released after maintenance, available to the waiting callers. If this pool instance has been shut
+     * down meanwhile, the wrapper gets removed instead
+     * @param wrapper an instance of {@link M2CPWrapper} class in the idle state
+     * @throws SQLException if {@link #removeWrapper(M2CPWrapper, boolean)} fails
+     */
+    private void publishWrapper(M2CPWrapper wrapper) throws SQLException {
+        if (shutdown) {
+            if (wrapper.tryRetire()) {
+                removeWrapper(wrapper, false);
+            }
+        } else if (!waiters.isEmpty() && wrapper.tryLease()) {
+            offerWrapper(wrapper);
+        }
+    }
+
+    /**
+     * This method validates an idle wrapper on behalf of the cleaner. The wrapper is reserved for the duration of
+     * the check, so no borrower can lease it meanwhile, and a wrapper that has been leased in the meantime is left
+     * alone. A wrapper holding a broken connection gets replaced
+     * @param wrapper an instance of {@link M2CPWrapper} class
+     * @return false if the wrapper has been found broken and removed; true otherwise
+     * @throws SQLException if {@link #removeWrapper(M2CPWrapper, boolean)} fails
+     */
+    boolean validateIdleWrapper(M2CPWrapper wrapper) throws SQLException {
+        if (!wrapper.tryReserve()) {
+            return true;
+        }
+
+        if (!validate(wrapper)) {
+            wrapper.markRemoved();
+            removeWrapper(wrapper, true);
+            return false;
+        }
+
+        wrapper.tryUnreserve();
+        publishWrapper(wrapper);
+        return true;
+    }
+
+    /**
+     * The method repopulates the list of wrappers in the background. To determine the number of wrappers to be
+     * added, the method checks divergence between the min size of the pool and the actual size of the current list
+     * of wrappers, including wrappers that are still being created. A wrapper that can't be created is left for the
+     * next call
+     * @see #reserveWrapper(int)
+     */
+    void replenish() {
+        while (reserveWrapper(getMinSize())) {
+            if (!submitWrapper()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * This method makes the pool open one more connection in the background, unless the pool has reached its max
+     * size, counting wrappers that are still being created
+     * @see #reserveWrapper(int)
+     */
+    private void grow() {
+        if (reserveWrapper(getMaxSize())) {
+            submitWrapper();
+        }
+    }
+
+    /**
+     * This method accounts for a new wrapper in the counter of pending wrappers by a compare-and-set, provided that
+     * the pool stays within the given size, so concurrent calls never overshoot it
+     * @param targetSize number of wrappers not to be exceeded
+     * @return true if a new wrapper has been reserved; false if the pool has reached the size or has been shut down
+     */
+    private boolean reserveWrapper(int targetSize) {
+        while (!shutdown) {
+            int pending = pendingWrappers.get();
+            if (wrapperList.size() + pending >= targetSize) {
+                return false;
+            }
+            if (pendingWrappers.compareAndSet(pending, pending + 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * This method hands creation of a reserved wrapper over to a connector thread
+     * @return true if the task has been accepted; false if the pool has been shut down concurrently
+     */
+    private boolean submitWrapper() {
+        try {
+            connector.execute(this::replenishWrapper);
+            return true;
+        } catch (RejectedExecutionException e) {
+            pendingWrappers.decrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * This method hands a maintenance task that may block on the network over to the connector threads, so that it
+     * does not hold up the shared scheduler
+     * @param task maintenance task
+     * @return true if the task has been accepted; false if the pool has been shut down
+     */
+    boolean executeOnConnector(Runnable task) {
+        try {
+            connector.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * This method closes an idle wrapper, provided that the pool keeps its min size afterwards. The method is
+     * designed to be called by the cleaner only, so there are no concurrent calls to compete with
+     * @param wrapper an instance of {@link M2CPWrapper} class
+     * @return true if the wrapper has been retired; false otherwise
+     * @throws SQLException if {@link #removeWrapper(M2CPWrapper, boolean)} fails
+     */
+    boolean retireIdleWrapper(M2CPWrapper wrapper) throws SQLException {
+        if (wrapperList.size() > getMinSize() && wrapper.tryRetire()) {
+            removeWrapper(wrapper, false);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * This method replaces an idle wrapper that has outlived its max lifetime. A wrapper that has been leased in
+     * the meantime is left alone, and gets replaced once it is returned
+     * @param wrapper an instance of {@link M2CPWrapper} class
+     * @return true if the wrapper has been replaced; false otherwise
+     * @throws SQLException if {@link #removeWrapper(M2CPWrapper, boolean)} fails
+     */
+    boolean expireIdleWrapper(M2CPWrapper wrapper) throws SQLException {
+        if (wrapper.tryRetire()) {
+            removeWrapper(wrapper, true);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks if the pool holds more wrappers than its max size, which happens after the max size has been lowered
+     * at runtime
+     * @return true if there are wrappers to be retired; false otherwise
+     */
+    boolean isOversized() {
+        return wrapperList.size() > getMaxSize();
+    }
+
+    /**
+     * Gets max number of wrappers, as currently configured
+     * @return max size of the pool
+     */
+    private int getMaxSize() {
+        return config.getPoolSize();
+    }
+
+    /**
+     * Gets number of wrappers the pool keeps open even when they are idle, as currently configured
+     * @return min size of the pool
+     */
+    private int getMinSize() {
+        int minIdle = config.getMinIdle();
+        return minIdle < 0 ? config.getPoolSize() : minIdle;
+    }
+
+    /**
+     * Gets number of wrappers being created in the background
+     * @return number of wrappers
+     */
+    int getPendingCount() {
+        return pendingWrappers.get();
+    }
+
+    /**
+     * Gets counter of the wrappers currently leased, kept up to date by the wrappers themselves
+     * @return striped counter
+     */
+    LongAdder getLeasedWrappers() {
+        return leasedWrappers;
+    }
+
+    /**
+     * Gets number of threads currently waiting for a wrapper
+     * @return number of threads
+     */
+    int getWaitingThreads() {
+        return waitingThreads.get();
+    }
+
+    /**
+     * Gets datasource this pool instance is registered under
+     * @return key of the pool instance
+     */
+    M2CPKey getKey() {
+        return key;
+    }
+
+    /**
+     * This method applies settings changed at runtime that need more than being read on the next occasion: the
+     * lease timer gets rescheduled for the new lease deadlines, the cleaner runs the background validation under
+     * the new interval, and the pool opens connections up to its new min size right away
+     */
+    void settingsChanged() {
+        leaseTimer.reschedule();
+        cleaner.reschedule();
+        replenish();
+    }
+
+    /**
+     * This method creates a single wrapper on behalf of {@link #replenish()} and {@link #grow()}, unless this pool
+     * instance has been shut down since the wrapper was reserved
+     */
+    private void replenishWrapper() {
+        if (shutdown) {
+            pendingWrappers.decrementAndGet();
+            return;
+        }
+        try {
+            createWrapper();
+        } catch (SQLException e) {
+            e.printStackTrace();
         }
     }
 
@@ -240,6 +1278,11 @@ public final class M2CP
      * @throws SQLException if the method fails to get connection
      */
     private Connection getRealConnection() throws SQLException {
-        return DriverManager.getConnection(url, username, password);
+        long started = nanoTime();
+        Connection connection = DriverManager.getConnection(key.getUrl(), key.getProperties());
+        long elapsed = nanoTime() - started;
+        statistics.recordCreationTime(elapsed);
+        listeners.created(elapsed);
+        return connection;
     }
 }
@@ -1,123 +1,276 @@
 package com.m2cp.pool;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import static com.m2cp.pool.M2CPMonitor.KEY;
 import static java.lang.System.currentTimeMillis;
 
 /**
- * Utility class that runs in a new thread and carries out background tasks on the associated connection pool:
- * - reclaiming connection wrappers with expired lease
- * - shutting down the pool if all wrappers are idle
- * Properties of this utility class are immutable and must be preset before each new instance is created
+ * Utility class that carries out background tasks on the associated connection pool on the shared
+ * {@link M2CPScheduler}:
+ * - replacing idle connection wrappers that have outlived their max lifetime, every cleaner sleep time
+ * - retiring connection wrappers that have been idle for too long and shutting down the pool if all wrappers are
+ * idle, every cleaner sleep time
+ * - validating idle wrappers in small batches and replacing broken ones, if background validation is enabled. The
+ * validation runs when the next idle wrapper is due, but no more often than every cleaner sleep time
+ * - replenishing the pool if it is short of wrappers, every cleaner sleep time
+ * Max idle time, idle timeout and the validation interval are read from the settings of the pool in each cycle, so
+ * changes made at runtime take effect on the next cycle. In keep-warm mode without an explicit interval, max idle
+ * time doubles as the validation interval, and changing it at runtime reschedules the validation right away. Cleaner
+ * sleep time, keep-warm mode and the validation batch size are fixed per instance. Wrappers with expired lease are
+ * reclaimed separately by {@link M2CPLeaseTimer}, so that the cleaner does not need to wake up as often as lease
+ * time requires
  * @author mikhailsaltyshev
  * @version 1.0.2
  */
-final class M2CPCleaner extends Thread
+final class M2CPCleaner
 {
     // Reference to the associated pool instance
     private final M2CP targetPool;
 
-    // Cleaner loop termination flag
-    private boolean isDone = false;
+    // Handles of the scheduled periodic tasks
+    private final List<ScheduledFuture<?>> tasks = new ArrayList<>();
+
+    // Handle of the next validation run, guarded by this cleaner instance along with the flag of a stopped cleaner
+    private ScheduledFuture<?> validationTask;
+    private boolean stopped;
+
+    // Set while idle wrappers are being validated, so that validation runs never overlap
+    private final AtomicBoolean validating = new AtomicBoolean();
+
+    // Settings of the associated pool instance
+    private final M2CPConfig config;
 
     // Properties are immutable per each instance
     private final long cleanerSleep;
-    private final long maxTimeLease;
-    private final long maxTimeIdle;
+    private final boolean keepWarm;
+    private final int validationBatchSize;
 
     /**
      * Constructor to fill in the properties specifically for each instance. After an instance is created its
      * properties can't be reset
      * @param targetPool reference to the associated connection pool instance
+     * @param config settings of the pool instance, to read max idle time, idle timeout and validation interval from
      * @param cleanerSleep cleaner sleep time between operations in milliseconds
-     * @param maxTimeLease wrapper max lease time in milliseconds before it gets reclaimed
-     * @param maxTimeIdle pool max idle time in milliseconds before it gets assigned to shutdown
+     * @param keepWarm true if the pool must not be shut down when idle
+     * @param validationBatchSize max number of wrappers validated in one cycle
      */
-    M2CPCleaner(M2CP targetPool, long cleanerSleep, long maxTimeLease, long maxTimeIdle) {
+    M2CPCleaner(M2CP targetPool, M2CPConfig config, long cleanerSleep, boolean keepWarm, int validationBatchSize) {
+        this.config = config;
         this.cleanerSleep = cleanerSleep;
-        this.maxTimeLease = maxTimeLease;
-        this.maxTimeIdle = maxTimeIdle;
+        this.keepWarm = keepWarm;
+        this.validationBatchSize = validationBatchSize;
         this.targetPool = targetPool;
     }
 
+    /**
+     * Schedules the tasks of this cleaner on the shared scheduler
+     */
+    synchronized void start() {
+        tasks.add(M2CPScheduler.scheduleWithFixedDelay(this::performCleaning, cleanerSleep));
+        tasks.add(M2CPScheduler.scheduleWithFixedDelay(targetPool::replenish, cleanerSleep));
+        long validationInterval = getValidationInterval();
+        if (validationInterval > 0) {
+            scheduleValidation(validationInterval);
+        }
+    }
+
+    /**
+     * Schedules the next validation run after the given delay, but no sooner than cleaner sleep time, replacing the
+     * run scheduled before, so that there is never more than one run pending
+     * @param delay time in milliseconds
+     */
+    private synchronized void scheduleValidation(long delay) {
+        if (stopped) {
+            return;
+        }
+        if (validationTask != null) {
+            validationTask.cancel(false);
+        }
+        validationTask = M2CPScheduler.schedule(this::performValidation, Math.max(delay, cleanerSleep));
+    }
+
+    /**
+     * Runs the validation right away, so that a validation interval changed at runtime takes effect on the wrappers
+     * that are due under the new interval instead of after the run scheduled under the old one
+     */
+    void reschedule() {
+        if (getValidationInterval() > 0) {
+            scheduleValidation(0);
+        }
+    }
+
+    /**
+     * Gets wrapper max time without use or validation before it gets validated in the background. In keep-warm mode
+     * without an explicit interval, this is max idle time, which may be changed at runtime
+     * @return time in milliseconds, zero if background validation is disabled
+     */
+    private long getValidationInterval() {
+        long validationInterval = config.getValidationInterval();
+        return validationInterval == 0 && keepWarm ? config.getMaxTimeIdle() : validationInterval;
+    }
+
+    /**
+     * Cancels the tasks of this cleaner. Gets called when the associated pool instance is shut down
+     */
+    synchronized void stop() {
+        stopped = true;
+        for (ScheduledFuture<?> task : tasks) {
+            task.cancel(false);
+        }
+        tasks.clear();
+        if (validationTask != null) {
+            validationTask.cancel(false);
+            validationTask = null;
+        }
+    }
+
     /**
      * Main method that gets called by the cleaner in each cycle of operations. The cleaner instance gets reference
      * to the current list of wrappers inside the associated pool and performs the following tasks:
-     * - if a wrapper is currently leased, the cleaner checks its lease time. If lease time is exceeded, the cleaner
-     * reclaims that wrapper by calling the {@link M2CP#removeWrapper(M2CPWrapper, boolean)} method
+     * - if a wrapper is currently leased, the cleaner leaves it to the lease timer
+     * - if a wrapper is not currently leased and has outlived its max lifetime, the cleaner replaces it by calling
+     * {@link M2CP#expireIdleWrapper(M2CPWrapper)} method
+     * - if a wrapper is not currently leased and has been idle longer than the idle timeout, or the pool holds more
+     * wrappers than its max size, the cleaner retires it by calling {@link M2CP#retireIdleWrapper(M2CPWrapper)}
+     * method, as long as the pool stays above its min size
      * - if a wrapper is not currently leased, the cleaner increments the counter of idle wrappers, as well as marks
      * the oldest idle wrapper. If the counter equals the size of the list of wrappers (which means that all wrappers
      * are idle) and if the oldest idle wrapper has exceeded max idle time, the cleaner starts the pool shutdown
-     * procedure by calling {@link M2CP#shutdown()} method
-     * - if the list of wrappers is empty, the cleaner sets its loop termination flag to true and ceases activity
+     * procedure by calling {@link M2CP#shutdown()} method. In keep-warm mode the pool is never shut down
+     * No global lock is held during the pass: each state change is a compare-and-set on the wrapper itself, so
+     * borrowers are never blocked by the cleaner
      * @see M2CP#returnConnection(M2CPWrapper)
      */
-    public void performCleaning() {
-        synchronized (KEY) {
-
-            int idleCounter = 0;
-            long longestIdle = 0;
-
-            List<M2CPWrapper> wrapperList = targetPool.getWrapperList();
-
-            for (M2CPWrapper wrapper : wrapperList) {
-                if (wrapper.isLeased()) {
-                    // Reclaim a wrapper with expired lease
-                    if (maxTimeLease >= 0 && wrapper.getLastTimeLeased() < (currentTimeMillis() - maxTimeLease)) {
-                        try {
-                            targetPool.removeWrapper(wrapper, true);
-                        } catch (SQLException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                } else {
-                    // Increment counter if a wrapper is idle
-                    idleCounter++;
+    void performCleaning() {
+        int idleCounter = 0;
+        long longestIdle = 0;
+        long idleTimeout = config.getIdleTimeout();
 
-                    // Mark the oldest idle wrapper
-                    if (wrapper.getLastTimeReturned() > longestIdle) {
-                        longestIdle = wrapper.getLastTimeReturned();
+        List<M2CPWrapper> wrapperList = targetPool.getWrapperList();
+
+        for (M2CPWrapper wrapper : wrapperList) {
+            // Leases are watched by the lease timer
+            if (!isIdle(wrapper)) {
+                continue;
+            }
+
+            // Replace a wrapper that has outlived its max lifetime
+            if (wrapper.isExpired(currentTimeMillis())) {
+                try {
+                    if (targetPool.expireIdleWrapper(wrapper)) {
+                        continue;
                     }
+                } catch (SQLException e) {
+                    e.printStackTrace();
                 }
+            }
 
-                // Shutdown the pool if all wrappers are idle and the oldest one exceeds max idle time
-                if (idleCounter == wrapperList.size() && longestIdle < (currentTimeMillis() - maxTimeIdle)) {
-                    try {
-                        targetPool.shutdown();
-                    } catch (SQLException e) {
-                        e.printStackTrace();
+            // Retire a wrapper that has been idle for too long or is beyond max size, as long as the pool stays above
+            // min size
+            if (wrapper.getLastTimeReturned() < (currentTimeMillis() - idleTimeout) || targetPool.isOversized()) {
+                try {
+                    if (targetPool.retireIdleWrapper(wrapper)) {
+                        continue;
                     }
+                } catch (SQLException e) {
+                    e.printStackTrace();
                 }
             }
 
-            // If the list is empty, stop the cleaner
-            if (wrapperList.isEmpty()) {
-                isDone = true;
+            // Increment counter if a wrapper is idle
+            idleCounter++;
+
+            // Mark the oldest idle wrapper
+            if (wrapper.getLastTimeReturned() > longestIdle) {
+                longestIdle = wrapper.getLastTimeReturned();
             }
         }
+
+        // Shutdown the pool if all wrappers are idle and the oldest one exceeds max idle time, unless kept warm
+        if (!keepWarm && !wrapperList.isEmpty() && idleCounter == wrapperList.size()
+                && longestIdle < (currentTimeMillis() - config.getMaxTimeIdle())) {
+            try {
+                targetPool.shutdown();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Background validation task. As validation may block on the network, the actual work is handed over to the
+     * connector threads of the pool, so that it does not delay maintenance of other pool instances. A run is
+     * skipped while the previous one is still going, as that one schedules the next run when it is over
+     */
+    void performValidation() {
+        if (validating.compareAndSet(false, true) && !targetPool.executeOnConnector(this::validateIdleWrappers)) {
+            validating.set(false);
+            scheduleValidation(cleanerSleep);
+        }
     }
 
     /**
-     * Cleaner thread run method. The cleaner performs its tasks, goes to sleep, then wakes up and checks if the
-     * list of wrappers is not empty. If the list is empty, the cleaner exits the loop and ceases activity
+     * This method validates up to a batch of wrappers that have been idle longer than the validation interval since
+     * they were returned or last validated, by calling the {@link M2CP#validateIdleWrapper(M2CPWrapper)} method,
+     * which replaces the wrapper if it is broken. Leased wrappers are never touched, and each idle one is taken out
+     * of the pool only for the duration of its own check. The next run is scheduled for the time the next idle
+     * wrapper is due, or after cleaner sleep time if due wrappers are left over beyond the batch
      */
-    @Override
-    public void run() {
-        while (!isDone) {
-            performCleaning();
+    private void validateIdleWrappers() {
+        long delay = cleanerSleep;
+        try {
+            delay = validateDueWrappers();
+        } finally {
+            validating.set(false);
+            scheduleValidation(delay);
+        }
+    }
+
+    /**
+     * This method validates the batch of due wrappers on behalf of {@link #validateIdleWrappers()}
+     * @return time in milliseconds until the next wrapper is due
+     */
+    private long validateDueWrappers() {
+        long validationInterval = getValidationInterval();
+        if (validationInterval == 0) {
+            return cleanerSleep;
+        }
 
+        long now = currentTimeMillis();
+        long nextDue = now + validationInterval;
+        int validated = 0;
+        for (M2CPWrapper wrapper : targetPool.getWrapperList()) {
+            if (!isIdle(wrapper)) {
+                continue;
+            }
+            long due = Math.max(wrapper.getLastTimeReturned(), wrapper.getLastTimeValidated()) + validationInterval;
+            if (due >= now) {
+                nextDue = Math.min(nextDue, due);
+                continue;
+            }
+            if (validated == validationBatchSize) {
+                return cleanerSleep;
+            }
+            validated++;
             try {
-                //noinspection BusyWait
-                Thread.sleep(cleanerSleep);
-            } catch (InterruptedException e) {
+                targetPool.validateIdleWrapper(wrapper);
+            } catch (SQLException e) {
                 e.printStackTrace();
             }
-
-            if (isDone) {
-                break;
-            }
         }
+        return nextDue - currentTimeMillis();
+    }
+
+    /**
+     * Checks if a wrapper is neither leased nor removed
+     * @param wrapper an instance of {@link M2CPWrapper} class
+     * @return true if the wrapper is idle; false otherwise
+     */
+    private static boolean isIdle(M2CPWrapper wrapper) {
+        return !wrapper.isLeased() && !wrapper.isRemoved();
     }
 }
@@ -0,0 +1,557 @@
+package com.m2cp.pool;
+
+import java.util.Objects;
+
+/**
+ * Class that holds settings of a pool instance. A pool instance takes its own copy of the settings when it gets
+ * created, so changing a config object afterwards does not affect pools that are already running. The static
+ * setters of the {@link M2CP} class modify the default config applied to pools created without an explicit one.
+ * Pool size, min idle and the lease and idle times of a running pool instance can still be tuned through its
+ * {@link M2CPPoolMXBean}, so these settings are volatile and read by the pool instance whenever they are needed
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+public final class M2CPConfig
+{
+    // Pool size properties
+    private volatile int poolSize = 10;
+    private volatile int minIdle = -1;
+    private int warmupThreads = 4;
+    private int warmupMinReady = 0;
+    private int statementCacheSize = 0;
+    private int leakTraceSampleRate = 1;
+
+    // Time properties
+    private long cleanerSleep = 1000;
+    private volatile long maxTimeLease = 1000;
+    private volatile long maxTimeIdle = 1000;
+    private volatile long connectionTimeout = 1000;
+    private volatile long idleTimeout = 10000;
+    private long maxLifetime = 0;
+    private long leakDetectionThreshold = 0;
+    private long validationWindow = 500;
+    private int validationTimeout = 1;
+    private long validationInterval = 0;
+    private int validationBatchSize = 4;
+
+    // Validation properties
+    private String testQuery = null;
+
+    // Mode properties
+    private boolean keepWarm = false;
+    private boolean leakWarnOnly = false;
+    private boolean jmxEnabled = true;
+    private boolean asyncListeners = false;
+
+    // Listeners registered with each pool instance
+    private M2CPListener[] listeners = new M2CPListener[0];
+
+    /**
+     * Constructor for a config instance filled with default settings
+     */
+    public M2CPConfig() {}
+
+    /**
+     * Gets pool size
+     * @return max number of open connections in the pool
+     */
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * Sets pool size, i.e. max number of open connections in the pool
+     * @param poolSize max number of open connections in the pool (default is 10)
+     */
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    /**
+     * Gets min number of open connections kept in the pool even when they are idle
+     * @return min number of open connections, negative to keep the pool at its full size
+     */
+    public int getMinIdle() {
+        return minIdle;
+    }
+
+    /**
+     * Sets min number of open connections kept in the pool even when they are idle. The pool opens this many
+     * connections on start, grows on demand up to the pool size, and closes connections beyond this number one by
+     * one after they have been idle for the idle timeout
+     * @param minIdle min number of open connections, negative to keep the pool at its full size (default is -1)
+     */
+    public void setMinIdle(int minIdle) {
+        this.minIdle = minIdle;
+    }
+
+    /**
+     * Gets number of threads opening connections in parallel
+     * @return number of threads
+     */
+    public int getWarmupThreads() {
+        return warmupThreads;
+    }
+
+    /**
+     * Sets number of threads opening connections in parallel, both when the pool gets populated and when it gets
+     * replenished
+     * @param warmupThreads number of threads (default is 4)
+     */
+    public void setWarmupThreads(int warmupThreads) {
+        this.warmupThreads = warmupThreads;
+    }
+
+    /**
+     * Gets number of connections that must be open before the pool starts leasing them
+     * @return number of connections, zero to wait for the whole pool
+     */
+    public int getWarmupMinReady() {
+        return warmupMinReady;
+    }
+
+    /**
+     * Sets number of connections that must be open before the pool starts leasing them. The rest of the pool gets
+     * populated in the background
+     * @param warmupMinReady number of connections, zero to wait for the whole pool (default is 0)
+     */
+    public void setWarmupMinReady(int warmupMinReady) {
+        this.warmupMinReady = warmupMinReady;
+    }
+
+    /**
+     * Gets max number of idle prepared statements cached per connection
+     * @return number of statements, zero if statements are not cached
+     */
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    /**
+     * Sets max number of idle prepared statements cached per connection. With a non-zero size, closing a prepared
+     * statement keeps it open in the cache of its connection, and preparing the same SQL with the same options on
+     * that connection again reuses it, so the database does not parse and plan it once more. Once the cache is
+     * full, the least recently used statement gets closed. Statements in use do not count towards the size
+     * @param statementCacheSize number of statements, zero to disable the cache (default is 0)
+     */
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    /**
+     * Gets the cleaner sleep time between operations
+     * @return time in milliseconds
+     */
+    public long getCleanerSleep() {
+        return cleanerSleep;
+    }
+
+    /**
+     * Sets the cleaner sleep time between operations. It is not recommended to set sleep time lower than 10
+     * milliseconds, as it can have negative impact on performance and result in errors
+     * @param cleanerSleep in milliseconds (default is 1000)
+     */
+    public void setCleanerSleep(long cleanerSleep) {
+        this.cleanerSleep = cleanerSleep;
+    }
+
+    /**
+     * Gets a connection max lease time before it gets reclaimed by the cleaner
+     * @return time in milliseconds
+     */
+    public long getMaxTimeLease() {
+        return maxTimeLease;
+    }
+
+    /**
+     * Sets a connection max lease time before it gets reclaimed by the cleaner
+     * @param maxTimeLease in milliseconds (default is 1000)
+     */
+    public void setMaxTimeLease(long maxTimeLease) {
+        this.maxTimeLease = maxTimeLease;
+    }
+
+    /**
+     * Gets pool max idle time before it gets assigned to shut down by the cleaner
+     * @return time in milliseconds
+     */
+    public long getMaxTimeIdle() {
+        return maxTimeIdle;
+    }
+
+    /**
+     * Sets pool max idle time before it gets assigned to shut down by the cleaner. In keep-warm mode this is the
+     * time after which an idle connection gets validated instead
+     * @param maxTimeIdle in milliseconds (default is 1000)
+     */
+    public void setMaxTimeIdle(long maxTimeIdle) {
+        this.maxTimeIdle = maxTimeIdle;
+    }
+
+    /**
+     * Gets max time a caller waits for an available connection
+     * @return time in milliseconds
+     */
+    public long getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    /**
+     * Sets max time a caller waits for an available connection when all connections in the pool are leased. If no
+     * connection gets returned within this time, the caller gets an exception. Zero means that the caller fails
+     * immediately
+     * @param connectionTimeout in milliseconds (default is 1000)
+     */
+    public void setConnectionTimeout(long connectionTimeout) {
+        this.connectionTimeout = connectionTimeout;
+    }
+
+    /**
+     * Gets max time a single connection beyond the min idle number may stay idle
+     * @return time in milliseconds
+     */
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Sets max time a single connection beyond the min idle number may stay idle before it gets closed by the
+     * cleaner
+     * @param idleTimeout in milliseconds (default is 10000)
+     */
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Gets lease time after which a lease gets reported as a possible connection leak
+     * @return time in milliseconds, zero if leak detection is disabled
+     */
+    public long getLeakDetectionThreshold() {
+        return leakDetectionThreshold;
+    }
+
+    /**
+     * Sets lease time after which a lease gets reported as a possible connection leak. The report is printed to
+     * the standard error stream along with the stack trace captured when the connection was leased, so that the
+     * code path that fails to return the connection can be found. The threshold is expected to be lower than max
+     * lease time, so that leaks get reported before they are reclaimed
+     * @param leakDetectionThreshold in milliseconds, zero to disable leak detection (default is 0)
+     */
+    public void setLeakDetectionThreshold(long leakDetectionThreshold) {
+        this.leakDetectionThreshold = leakDetectionThreshold;
+    }
+
+    /**
+     * Gets sample rate of the stack traces captured for leak detection
+     * @return one in how many leases gets its stack trace captured
+     */
+    public int getLeakTraceSampleRate() {
+        return leakTraceSampleRate;
+    }
+
+    /**
+     * Sets sample rate of the stack traces captured for leak detection. Capturing a stack trace on each lease has
+     * a cost, so under heavy load it can be captured for a random sample of leases only. A leak of a lease that
+     * has not been sampled is still reported, but without the stack trace
+     * @param leakTraceSampleRate one in how many leases gets its stack trace captured (default is 1)
+     */
+    public void setLeakTraceSampleRate(int leakTraceSampleRate) {
+        this.leakTraceSampleRate = leakTraceSampleRate;
+    }
+
+    /**
+     * Gets warn-only mode of leak detection
+     * @return true if expired leases are only reported; false if they are reclaimed
+     */
+    public boolean isLeakWarnOnly() {
+        return leakWarnOnly;
+    }
+
+    /**
+     * Sets warn-only mode of leak detection. In this mode a lease exceeding max lease time is reported as a leak
+     * instead of being reclaimed, so the connection is not closed and the pool does not pay for a reconnect. A
+     * leaked connection is then lost to the pool until the user app returns it. Unless a leak detection threshold
+     * is set, max lease time is used as the threshold
+     * @param leakWarnOnly true to only report expired leases; false to reclaim them (default is false)
+     */
+    public void setLeakWarnOnly(boolean leakWarnOnly) {
+        this.leakWarnOnly = leakWarnOnly;
+    }
+
+    /**
+     * Gets max time a connection is kept open since it has been created
+     * @return time in milliseconds, zero if connections are kept open for as long as they work
+     */
+    public long getMaxLifetime() {
+        return maxLifetime;
+    }
+
+    /**
+     * Sets max time a connection is kept open since it has been created, e.g. to release memory held by long-lived
+     * database sessions or to rebalance connections after a failover. A connection is never closed while it is
+     * leased: it gets replaced once it is returned, or by the cleaner while it is idle. Each connection gets up to
+     * a tenth of this time taken off at random, so that connections opened together are not replaced all at once
+     * @param maxLifetime in milliseconds, zero to keep connections open for as long as they work (default is 0)
+     */
+    public void setMaxLifetime(long maxLifetime) {
+        this.maxLifetime = maxLifetime;
+    }
+
+    /**
+     * Gets time since a connection was last used or validated, within which it is leased without being validated
+     * @return time in milliseconds
+     */
+    public long getValidationWindow() {
+        return validationWindow;
+    }
+
+    /**
+     * Sets time since a connection was last returned or validated, within which it is leased without being
+     * validated. A connection that has been idle longer gets validated before it is handed to the caller, and gets
+     * replaced if it turns out to be broken. Zero means that each connection is validated on every lease
+     * @param validationWindow in milliseconds (default is 500)
+     */
+    public void setValidationWindow(long validationWindow) {
+        this.validationWindow = validationWindow;
+    }
+
+    /**
+     * Gets max time to wait for a connection to be validated
+     * @return time in seconds
+     */
+    public int getValidationTimeout() {
+        return validationTimeout;
+    }
+
+    /**
+     * Sets max time to wait for a connection to be validated, after which it is considered broken. Zero means no
+     * limit, as defined by {@link java.sql.Connection#isValid(int)}
+     * @param validationTimeout in seconds (default is 1)
+     */
+    public void setValidationTimeout(int validationTimeout) {
+        this.validationTimeout = validationTimeout;
+    }
+
+    /**
+     * Gets time after which an idle connection gets validated in the background
+     * @return time in milliseconds, zero if background validation is disabled
+     */
+    public long getValidationInterval() {
+        return validationInterval;
+    }
+
+    /**
+     * Sets time after which an idle connection gets validated in the background. The cleaner validates each
+     * connection that has been neither used nor validated for this long, and replaces it if it turns out to be
+     * broken, so that borrowers rarely run into a dead connection. As the validation is a round-trip to the
+     * database, it also serves as a keepalive: setting the interval below the idle timeout of firewalls and the
+     * database keeps idle connections from being silently dropped. Zero disables background validation, except in
+     * keep-warm mode, where max idle time is used instead
+     * @param validationInterval in milliseconds (default is 0)
+     */
+    public void setValidationInterval(long validationInterval) {
+        this.validationInterval = validationInterval;
+    }
+
+    /**
+     * Gets max number of idle connections validated in the background in one cleaner cycle
+     * @return number of connections
+     */
+    public int getValidationBatchSize() {
+        return validationBatchSize;
+    }
+
+    /**
+     * Sets max number of idle connections validated in the background in one cleaner cycle. Each connection is
+     * taken out of the pool only while it is being validated, so small batches keep most of the idle connections
+     * available to borrowers. Connections beyond the batch are validated in the next cycles
+     * @param validationBatchSize number of connections (default is 4)
+     */
+    public void setValidationBatchSize(int validationBatchSize) {
+        this.validationBatchSize = validationBatchSize;
+    }
+
+    /**
+     * Gets query used to validate connections
+     * @return SQL query, or null if connections are validated by the driver
+     */
+    public String getTestQuery() {
+        return testQuery;
+    }
+
+    /**
+     * Sets query used to validate connections, e.g. "SELECT 1". Without a test query connections are validated by
+     * the {@link java.sql.Connection#isValid(int)} method of the driver, which is recommended for drivers that
+     * implement it properly
+     * @param testQuery SQL query, or null to let the driver validate connections (default is null)
+     */
+    public void setTestQuery(String testQuery) {
+        this.testQuery = testQuery;
+    }
+
+    /**
+     * Gets keep-warm mode of the pool
+     * @return true if the pool is kept warm; false if it is shut down when idle
+     */
+    public boolean isKeepWarm() {
+        return keepWarm;
+    }
+
+    /**
+     * Sets keep-warm mode of the pool. In this mode the pool is never shut down for being idle. Instead, each
+     * connection that has been idle longer than the validation interval, or max idle time if no interval is set,
+     * gets validated by the cleaner, and gets replaced if it turns out to be broken, so that the next caller after
+     * a quiet period gets a live connection right away
+     * @param keepWarm true to keep the pool warm; false to shut it down when idle (default is false)
+     */
+    public void setKeepWarm(boolean keepWarm) {
+        this.keepWarm = keepWarm;
+    }
+
+    /**
+     * Gets whether the pool registers its MXBean
+     * @return true if the MXBean gets registered; false otherwise
+     */
+    public boolean isJmxEnabled() {
+        return jmxEnabled;
+    }
+
+    /**
+     * Sets whether the pool registers its {@link M2CPPoolMXBean} with the platform MBean server, under the name
+     * "com.m2cp.pool:type=Pool,id=..." along with the database url
+     * @param jmxEnabled true to register the MXBean; false otherwise (default is true)
+     */
+    public void setJmxEnabled(boolean jmxEnabled) {
+        this.jmxEnabled = jmxEnabled;
+    }
+
+    /**
+     * Gets listeners registered with the pool
+     * @return copy of the listeners
+     */
+    public M2CPListener[] getListeners() {
+        return listeners.clone();
+    }
+
+    /**
+     * Sets listeners registered with the pool from its creation, so that they get notified of the connections
+     * opened on warm-up as well. More listeners can be added to a running pool instance
+     * @param listeners listeners to be notified of the events of the pool (default is none)
+     * @see M2CP#addListener(M2CPListener)
+     */
+    public void setListeners(M2CPListener... listeners) {
+        for (M2CPListener listener : listeners) {
+            Objects.requireNonNull(listener, "listener");
+        }
+        this.listeners = listeners.clone();
+    }
+
+    /**
+     * Gets whether the pool dispatches events to its listeners asynchronously
+     * @return true if events are dispatched on the listener thread; false if listeners are called directly
+     */
+    public boolean isAsyncListeners() {
+        return asyncListeners;
+    }
+
+    /**
+     * Sets whether the pool dispatches events to its listeners asynchronously. By default listeners are called
+     * directly by the thread causing the event, so a slow listener slows down the borrower. In asynchronous mode
+     * events are queued for a single listener thread instead, at the cost of allocating each event
+     * @param asyncListeners true to dispatch events on the listener thread; false to call listeners directly
+     * (default is false)
+     */
+    public void setAsyncListeners(boolean asyncListeners) {
+        this.asyncListeners = asyncListeners;
+    }
+
+    /**
+     * This method checks that the settings are consistent before a pool instance gets created with them
+     * @throws M2CPException if any of the settings is out of range
+     */
+    void validate() {
+        // Zero or negative values are not accepted
+        if (cleanerSleep < 1 || maxTimeLease < 1 || maxTimeIdle < 1 || idleTimeout < 1) {
+            throw new M2CPException("Failed to initialize cleaner: "
+                    + "time values must be positive integers higher than zero");
+        }
+
+        if (maxLifetime < 0 || leakDetectionThreshold < 0) {
+            throw new M2CPException("Failed to initialize pool: "
+                    + "max lifetime and leak detection threshold must be non-negative integers");
+        }
+
+        if (leakTraceSampleRate < 1) {
+            throw new M2CPException("Failed to initialize pool: "
+                    + "leak trace sample rate must be a positive integer higher than zero");
+        }
+
+        if (connectionTimeout < 0) {
+            throw new M2CPException("Failed to initialize pool: "
+                    + "connection timeout must be a non-negative integer");
+        }
+
+        if (validationWindow < 0 || validationTimeout < 0 || validationInterval < 0) {
+            throw new M2CPException("Failed to initialize pool: "
+                    + "validation window, timeout and interval must be non-negative integers");
+        }
+
+        if (validationBatchSize < 1) {
+            throw new M2CPException("Failed to initialize pool: "
+                    + "validation batch size must be a positive integer higher than zero");
+        }
+
+        if (poolSize < 1) {
+            throw new M2CPException("Failed to initialize pool: "
+                    + "pool size must be a positive integer higher than zero");
+        }
+
+        if (minIdle > poolSize) {
+            throw new M2CPException("Failed to initialize pool: "
+                    + "min idle must not exceed pool size");
+        }
+
+        if (statementCacheSize < 0) {
+            throw new M2CPException("Failed to initialize pool: "
+                    + "statement cache size must be a non-negative integer");
+        }
+
+        if (warmupThreads < 1 || warmupMinReady < 0) {
+            throw new M2CPException("Failed to initialize pool: "
+                    + "warm-up threads must be a positive integer and min ready must be non-negative");
+        }
+    }
+
+    /**
+     * This method creates an independent copy of the settings, to be owned by a new pool instance
+     * @return an instance of {@link M2CPConfig} class with the same settings
+     */
+    M2CPConfig copy() {
+        M2CPConfig copy = new M2CPConfig();
+        copy.poolSize = poolSize;
+        copy.minIdle = minIdle;
+        copy.warmupThreads = warmupThreads;
+        copy.warmupMinReady = warmupMinReady;
+        copy.statementCacheSize = statementCacheSize;
+        copy.cleanerSleep = cleanerSleep;
+        copy.maxTimeLease = maxTimeLease;
+        copy.maxTimeIdle = maxTimeIdle;
+        copy.connectionTimeout = connectionTimeout;
+        copy.idleTimeout = idleTimeout;
+        copy.maxLifetime = maxLifetime;
+        copy.leakDetectionThreshold = leakDetectionThreshold;
+        copy.leakTraceSampleRate = leakTraceSampleRate;
+        copy.leakWarnOnly = leakWarnOnly;
+        copy.validationWindow = validationWindow;
+        copy.validationTimeout = validationTimeout;
+        copy.validationInterval = validationInterval;
+        copy.validationBatchSize = validationBatchSize;
+        copy.testQuery = testQuery;
+        copy.keepWarm = keepWarm;
+        copy.jmxEnabled = jmxEnabled;
+        copy.asyncListeners = asyncListeners;
+        copy.listeners = listeners.clone();
+        return copy;
+    }
+}
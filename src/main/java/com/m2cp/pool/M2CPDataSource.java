@@ -0,0 +1,179 @@
+package com.m2cp.pool;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+/**
+ * Implementation of {@link DataSource} backed by an {@link M2CP} pool instance, meant to be wired into frameworks and
+ * dependency injection containers instead of calling the static {@link M2CP#getConnection(String, String, String)}.
+ * The data source keeps a direct reference to its pool instance, so once the pool is up, getting a connection does
+ * not go through the registry of pools at all. If the pool instance gets shut down, e.g. for being idle, the data
+ * source transparently switches to a fresh instance for the same datasource
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+public final class M2CPDataSource implements DataSource, AutoCloseable
+{
+    // Datasource of the pool instance
+    private final M2CPKey key;
+
+    // Settings for a new pool instance, or null to apply the default settings
+    private final M2CPConfig config;
+
+    // Pool instance currently backing this data source
+    private volatile M2CP pool;
+
+    // Pool instances created for other credentials, so that they get shut down along with this data source
+    private final ConcurrentMap<M2CPKey, M2CP> otherPools = new ConcurrentHashMap<>();
+
+    // Properties required by the DataSource interface
+    private volatile PrintWriter logWriter;
+    private volatile int loginTimeout = 0;
+
+    /**
+     * Constructor for a data source backed by a pool instance with the default settings
+     * @param url string to access the database
+     * @param username string to access the database
+     * @param password string to access the database
+     */
+    public M2CPDataSource(String url, String username, String password) {
+        this(url, M2CP.credentials(username, password), null);
+    }
+
+    /**
+     * Constructor for a data source backed by a pool instance with the given settings. The settings are copied
+     * when the pool instance gets created, and are ignored if a pool instance for the same datasource is already
+     * running
+     * @param url string to access the database
+     * @param properties connection properties to access the database, e.g. user and password
+     * @param config settings for the pool instance
+     */
+    public M2CPDataSource(String url, Properties properties, M2CPConfig config) {
+        this.key = new M2CPKey(url, properties);
+        this.config = config == null ? null : config.copy();
+    }
+
+    /**
+     * Gets the pool instance backing this data source, creating it if it is not running. The pool instance can be
+     * created in advance by calling this method at start up, so that the first caller does not pay for it
+     * @return pool instance of the datasource
+     * @throws SQLException if the pool instance fails to acquire connections
+     */
+    public M2CP getPool() throws SQLException {
+        M2CP current = pool;
+        if (current == null || current.isShutdown()) {
+            current = M2CP.getPool(key, config);
+            pool = current;
+        }
+        return current;
+    }
+
+    /**
+     * Gets a connection from the pool instance backing this data source, waiting for the connection timeout of the
+     * pool instance if all connections are leased
+     * @return an instance of {@link M2CPWrapper} class
+     * @throws SQLException if the pool instance fails to acquire connection
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        while (true) {
+            M2CP current = getPool();
+
+            // Null result means the pool has been shut down concurrently, so retry with a fresh instance
+            Connection connection = current.leaseConnection(current.getConnectionTimeout());
+            if (connection != null) {
+                return connection;
+            }
+        }
+    }
+
+    /**
+     * Gets a connection for other credentials than those of this data source. Such connections come from a separate
+     * pool instance for the same url and the given credentials, created with the settings of this data source. The
+     * data source keeps track of such pool instances and shuts them down when it is closed
+     * @param username string to access the database
+     * @param password string to access the database
+     * @return an instance of {@link M2CPWrapper} class
+     * @throws SQLException if the pool instance fails to acquire connection
+     */
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        M2CPKey other = new M2CPKey(key.getUrl(), M2CP.credentials(username, password));
+        while (true) {
+            M2CP current = otherPools.get(other);
+            if (current == null || current.isShutdown()) {
+                current = M2CP.getPool(other, config);
+                otherPools.put(other, current);
+            }
+
+            Connection connection = current.leaseConnection(current.getConnectionTimeout());
+            if (connection != null) {
+                return connection;
+            }
+        }
+    }
+
+    /**
+     * Shuts down the pool instance backing this data source, if it is running, as well as the pool instances created
+     * for other credentials
+     * @throws SQLException if a pool instance fails to shut down
+     */
+    @Override
+    public void close() throws SQLException {
+        M2CP current = pool;
+        if (current != null) {
+            current.shutdown();
+        }
+        for (M2CPKey other : otherPools.keySet()) {
+            M2CP otherPool = otherPools.remove(other);
+            if (otherPool != null) {
+                otherPool.shutdown();
+            }
+        }
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return logWriter;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+        this.logWriter = out;
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) {
+        this.loginTimeout = seconds;
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return loginTimeout;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException("M2CP does not use java.util.logging");
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("M2CPDataSource is not a wrapper for " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+}
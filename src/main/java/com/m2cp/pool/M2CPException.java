@@ -10,4 +10,8 @@ public class M2CPException extends RuntimeException
     public M2CPException(String message) {
         super(message);
     }
+
+    public M2CPException(String message, Throwable cause) {
+        super(message, cause);
+    }
 }
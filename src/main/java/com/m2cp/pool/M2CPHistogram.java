@@ -0,0 +1,92 @@
+package com.m2cp.pool;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class that records a distribution of durations. Values are counted in buckets of exponentially growing width,
+ * eight buckets per power of two, so each value is known to within an eighth of it, from a nanosecond up to the
+ * longest duration a long can hold. Every bucket is a striped counter, so recording takes no lock and allocates
+ * nothing once the counters are warmed up, and threads recording at the same time do not contend with each other
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+public final class M2CPHistogram
+{
+    // Number of bits of a value kept below its highest bit, i.e. log2 of the number of buckets per power of two
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    // Number of buckets covering all non-negative long values
+    static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    // Number of values in each bucket
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+    // Sum and max of all values
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Package-private constructor, as histograms are created only along with the statistics of a pool instance
+     */
+    M2CPHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a single duration. Negative values, which can only come from a clock going backwards, are recorded
+     * as zero
+     * @param nanos time in nanoseconds
+     */
+    void record(long nanos) {
+        long value = Math.max(0, nanos);
+        buckets[bucketOf(value)].increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Takes a snapshot of this histogram. The buckets are read one by one while other threads may keep recording,
+     * so values recorded during the snapshot may or may not be included
+     * @return an instance of {@link M2CPHistogramSnapshot} class
+     */
+    public M2CPHistogramSnapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return new M2CPHistogramSnapshot(counts, sum.sum(), max.get());
+    }
+
+    /**
+     * Gets index of the bucket of the given value. Values below the number of buckets per power of two get a bucket
+     * each; a greater value goes by its highest bit along with the next bits below it
+     * @param value non-negative value
+     * @return index of the bucket
+     */
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * Gets the greatest value counted in the given bucket
+     * @param bucket index of the bucket
+     * @return value in nanoseconds
+     */
+    static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,93 @@
+package com.m2cp.pool;
+
+/**
+ * Class that holds the state of a {@link M2CPHistogram} at some point in time. A snapshot does not change
+ * afterwards, so several percentiles read from it are consistent with each other. All values are in nanoseconds;
+ * a percentile is given as the greatest value of the bucket it falls into, so it may overstate the actual value by
+ * up to an eighth, but never exceeds the max
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+public final class M2CPHistogramSnapshot
+{
+    // Number of values in each bucket
+    private final long[] counts;
+
+    // Number, sum and max of all values
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    /**
+     * Package-private constructor, as snapshots are taken only by a histogram
+     * @param counts number of values in each bucket
+     * @param sum sum of all values
+     * @param max max of all values
+     */
+    M2CPHistogramSnapshot(long[] counts, long sum, long max) {
+        this.counts = counts;
+        long total = 0;
+        for (long bucket : counts) {
+            total += bucket;
+        }
+        this.count = total;
+        this.sum = sum;
+        this.max = max;
+    }
+
+    /**
+     * Gets number of recorded values
+     * @return number of values
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets mean of the recorded values
+     * @return time in nanoseconds, or zero if nothing has been recorded
+     */
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Gets max of the recorded values
+     * @return time in nanoseconds, or zero if nothing has been recorded
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Gets the value that the given percentage of the recorded values do not exceed, e.g. 99 for the 99th
+     * percentile
+     * @param percentile percentage from 0 to 100
+     * @return time in nanoseconds, or zero if nothing has been recorded
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new M2CPException("Failed to get percentile: " + percentile + " is not within [0, 100]");
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(M2CPHistogram.highestValueOf(i), max);
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count + ", mean=" + (long) getMean() + "ns, p50=" + getPercentile(50) + "ns, p90="
+                + getPercentile(90) + "ns, p99=" + getPercentile(99) + "ns, p99.9=" + getPercentile(99.9)
+                + "ns, max=" + max + "ns";
+    }
+}
@@ -0,0 +1,76 @@
+package com.m2cp.pool;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Class that identifies a pool instance in the registry of pools. Two keys are equal if they have the same database
+ * url and the same connection properties, e.g. user and password, so each distinct datasource gets its own pool
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+final class M2CPKey
+{
+    // Database url
+    private final String url;
+
+    // Snapshot of the connection properties, sorted to make the key independent of insertion order
+    private final Map<String, String> properties = new TreeMap<>();
+
+    /**
+     * Constructor for a key instance. The properties are copied, so later changes to them do not affect the key
+     * @param url string to access the database
+     * @param properties connection properties to access the database, or null if there are none
+     */
+    M2CPKey(String url, Properties properties) {
+        this.url = Objects.requireNonNull(url, "url");
+        if (properties != null) {
+            for (String name : properties.stringPropertyNames()) {
+                this.properties.put(name, properties.getProperty(name));
+            }
+        }
+    }
+
+    /**
+     * Gets database url
+     * @return string to access the database
+     */
+    String getUrl() {
+        return url;
+    }
+
+    /**
+     * Gets a fresh copy of the connection properties to be passed to the driver
+     * @return connection properties to access the database
+     */
+    Properties getProperties() {
+        Properties copy = new Properties();
+        copy.putAll(properties);
+        return copy;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof M2CPKey)) {
+            return false;
+        }
+        M2CPKey other = (M2CPKey) o;
+        return url.equals(other.url) && properties.equals(other.properties);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * url.hashCode() + properties.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        // Property values are left out, as they usually contain credentials
+        return url + " " + properties.keySet();
+    }
+}
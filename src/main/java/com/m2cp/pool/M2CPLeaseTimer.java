@@ -0,0 +1,208 @@
+package com.m2cp.pool;
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * Utility class that watches leases on the associated connection pool. It reclaims connection wrappers with expired
+ * lease and, if leak detection is enabled, reports leases that have lasted longer than the leak threshold along with
+ * the stack trace captured when the connection was leased. In warn-only mode expired leases are reported but never
+ * reclaimed, so a leak does not cost a reconnect. Instead of polling the pool periodically, the timer schedules
+ * itself on the shared {@link M2CPScheduler} for the earliest lease deadline and runs only when a deadline actually
+ * passes. A lease gets registered by stamping its start time on the wrapper, and gets cancelled by clearing the
+ * stamp on return, so neither operation allocates or takes any lock. If there are no leases at all, the timer is
+ * not scheduled until the next one starts. Max lease time, the leak threshold and warn-only mode are read from the
+ * settings of the pool on each use, so that they can be changed at runtime, in which case the timer gets rescheduled
+ * for the new deadlines
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+final class M2CPLeaseTimer
+{
+    // Reference to the associated pool instance
+    private final M2CP targetPool;
+
+    // Settings of the associated pool instance, to read max lease time and leak detection settings from
+    private final M2CPConfig config;
+
+    // Time in milliseconds of the next scheduled run, or zero while there is no lease to watch
+    private final AtomicLong nextRun = new AtomicLong();
+
+    /**
+     * Constructor for a timer instance
+     * @param targetPool reference to the associated connection pool instance
+     * @param config settings of the pool instance, to read max lease time and leak detection settings from
+     */
+    M2CPLeaseTimer(M2CP targetPool, M2CPConfig config) {
+        this.targetPool = targetPool;
+        this.config = config;
+    }
+
+    /**
+     * Gets lease time before a lease gets reported as a leak. In warn-only mode without an explicit threshold, this
+     * is max lease time, as expired leases are reported instead of being reclaimed
+     * @return time in milliseconds, zero if leak detection is disabled
+     */
+    long getLeakThreshold() {
+        long leakThreshold = config.getLeakDetectionThreshold();
+        return leakThreshold == 0 && config.isLeakWarnOnly() ? config.getMaxTimeLease() : leakThreshold;
+    }
+
+    /**
+     * This method gets called by the pool after a lease has been stamped on a wrapper. The first deadline of the new
+     * lease is the earlier of the leak threshold and, if expired leases are reclaimed, max lease time, as the leak
+     * threshold may well be set longer than max lease time. The timer only needs to be scheduled if it is not
+     * scheduled at all, or is scheduled later than that deadline. As all leases last equally long, the latter
+     * happens only when a lease reported as a leak is still being watched for reclaim, or when max lease time has
+     * been shortened. Once the first deadline has been handled, the timer gets scheduled for the remaining one
+     * @param leased time in milliseconds the lease has started
+     */
+    void leaseStarted(long leased) {
+        long leakThreshold = getLeakThreshold();
+        long timeout = config.isLeakWarnOnly() ? Long.MAX_VALUE : config.getMaxTimeLease();
+        if (leakThreshold > 0 && leakThreshold < timeout) {
+            timeout = leakThreshold;
+        }
+        if (timeout != Long.MAX_VALUE) {
+            scheduleBy(leased + timeout);
+        }
+    }
+
+    /**
+     * This method gets called by the pool after max lease time or leak detection settings have been changed.
+     * Deadlines of the current leases are looked up on the shared scheduler, so that the lookup never runs
+     * concurrently with the timer itself, and the timer gets scheduled earlier if any of them has moved ahead of the
+     * next run
+     */
+    void reschedule() {
+        M2CPScheduler.schedule(() -> {
+            long deadline = reclaimExpiredLeases();
+            if (deadline != 0) {
+                scheduleBy(deadline);
+            }
+        }, 0);
+    }
+
+    /**
+     * This method makes sure the timer runs no later than the given deadline, scheduling it if it is not scheduled
+     * at all, or is scheduled later
+     * @param deadline time in milliseconds
+     */
+    private void scheduleBy(long deadline) {
+        long scheduledRun;
+        while ((scheduledRun = nextRun.get()) == 0 || scheduledRun > deadline) {
+            if (nextRun.compareAndSet(scheduledRun, deadline)) {
+                schedule(deadline);
+                return;
+            }
+        }
+    }
+
+    /**
+     * This method goes through the leases and handles each deadline that has passed. A lease that has lasted
+     * longer than the leak threshold is reported once. A wrapper whose lease has expired is reclaimed by claiming
+     * the stamp of the lease, switching the wrapper to the removed state and calling the
+     * {@link M2CP#removeWrapper(M2CPWrapper, boolean)} method, unless the timer only reports leaks. A lease that
+     * has been ended by a return in the meantime is left alone. Wrappers that are not leased are skipped at the
+     * cost of reading two fields
+     * @return the earliest deadline of the remaining leases in milliseconds, or zero if there are none
+     */
+    long reclaimExpiredLeases() {
+        long now = currentTimeMillis();
+        long earliest = Long.MAX_VALUE;
+        long maxTimeLease = config.getMaxTimeLease();
+        long leakThreshold = getLeakThreshold();
+        boolean reclaim = !config.isLeakWarnOnly();
+
+        for (M2CPWrapper wrapper : targetPool.getWrapperList()) {
+            long leased = wrapper.getLastTimeLeased();
+            if (leased == 0 || !wrapper.isLeased()) {
+                continue;
+            }
+
+            if (leakThreshold > 0 && !wrapper.isLeakReported(leased)) {
+                long reportTime = leased + leakThreshold;
+                if (reportTime <= now) {
+                    reportLeak(wrapper, leased, now);
+                } else if (reportTime < earliest) {
+                    earliest = reportTime;
+                }
+            }
+
+            if (!reclaim) {
+                continue;
+            }
+            long deadline = leased + maxTimeLease;
+            if (deadline <= now) {
+                if (wrapper.tryReclaim(leased)) {
+                    targetPool.getStatistics().recordReclaimedLease();
+                    targetPool.getListeners().reclaimed(now - leased);
+                    try {
+                        targetPool.removeWrapper(wrapper, true);
+                    } catch (SQLException e) {
+                        e.printStackTrace();
+                    }
+                }
+            } else if (deadline < earliest) {
+                earliest = deadline;
+            }
+        }
+        return earliest == Long.MAX_VALUE ? 0 : earliest;
+    }
+
+    /**
+     * This method reports a lease that has lasted longer than the leak threshold. The report carries the stack
+     * trace captured when the connection was leased, if the lease has been sampled
+     * @param wrapper an instance of {@link M2CPWrapper} class
+     * @param leased time in milliseconds the lease has started
+     * @param now current time in milliseconds
+     */
+    private void reportLeak(M2CPWrapper wrapper, long leased, long now) {
+        wrapper.setLeakReported(leased);
+        targetPool.getStatistics().recordLeakedLease();
+
+        Throwable trace = wrapper.getLeaseTrace();
+        M2CPException leak = new M2CPException("Connection leak detected: connection has been leased for "
+                + (now - leased) + " ms" + (trace == null ? ", lease has not been sampled" : ""), trace);
+        // The stack of the timer itself tells nothing about the leak
+        leak.setStackTrace(new StackTraceElement[0]);
+        leak.printStackTrace();
+    }
+
+    /**
+     * This method schedules a run of the timer
+     * @param time time in milliseconds of the run
+     */
+    private void schedule(long time) {
+        M2CPScheduler.schedule(() -> run(time), Math.max(0, time - currentTimeMillis()));
+    }
+
+    /**
+     * Timer run method. A run that has been superseded by an earlier one does nothing. Otherwise the timer handles
+     * the deadlines that have passed and schedules itself for the earliest remaining one. If there are none, the
+     * timer stops being scheduled, and checks the leases once more, as a lease could have started right before the
+     * timer announced that it is no longer scheduled
+     * @param time time in milliseconds this run has been scheduled for
+     */
+    private void run(long time) {
+        if (nextRun.get() != time) {
+            return;
+        }
+        long deadline = reclaimExpiredLeases();
+
+        if (deadline == 0) {
+            if (!nextRun.compareAndSet(time, 0)) {
+                return;
+            }
+            deadline = reclaimExpiredLeases();
+            if (deadline == 0 || !nextRun.compareAndSet(0, deadline)) {
+                return;
+            }
+        } else if (!nextRun.compareAndSet(time, deadline)) {
+            return;
+        }
+        schedule(deadline);
+    }
+}
@@ -0,0 +1,61 @@
+package com.m2cp.pool;
+
+/**
+ * Interface to be implemented by the user app to get notified of what happens in a pool instance. All methods do
+ * nothing by default, so a listener only overrides the events it is interested in. Listeners are called on the
+ * thread that causes the event, e.g. the borrower, unless the pool dispatches events asynchronously, in which case
+ * they are called one at a time on a shared listener thread. Either way a listener must be thread-safe, must not
+ * block for long, and must not call back into the pool. An exception thrown by a listener is reported and otherwise
+ * ignored
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+public interface M2CPListener
+{
+    /**
+     * Gets called when a connection has been leased
+     * @param pool pool instance the connection belongs to
+     * @param waitNanos time in nanoseconds the caller has waited for the connection, including its validation
+     */
+    default void onLease(M2CP pool, long waitNanos) {}
+
+    /**
+     * Gets called when a connection has been returned by the user app
+     * @param pool pool instance the connection belongs to
+     * @param holdNanos time in nanoseconds the connection has been leased for
+     */
+    default void onReturn(M2CP pool, long holdNanos) {}
+
+    /**
+     * Gets called when a physical connection has been opened
+     * @param pool pool instance the connection belongs to
+     * @param creationNanos time in nanoseconds the driver has taken to open the connection
+     */
+    default void onCreate(M2CP pool, long creationNanos) {}
+
+    /**
+     * Gets called when a physical connection has been closed, for whatever reason
+     * @param pool pool instance the connection belonged to
+     */
+    default void onDestroy(M2CP pool) {}
+
+    /**
+     * Gets called when a connection has failed validation, right before it gets replaced
+     * @param pool pool instance the connection belongs to
+     */
+    default void onValidationFailure(M2CP pool) {}
+
+    /**
+     * Gets called when a lease has been reclaimed from the user app after max lease time
+     * @param pool pool instance the connection belonged to
+     * @param leaseMillis time in milliseconds the connection had been leased for
+     */
+    default void onReclaim(M2CP pool, long leaseMillis) {}
+
+    /**
+     * Gets called when a caller has got no connection within its timeout, as all connections have stayed leased
+     * @param pool pool instance the caller has waited on
+     * @param timeout time in milliseconds the caller has waited for
+     */
+    default void onExhausted(M2CP pool, long timeout) {}
+}
@@ -0,0 +1,199 @@
+package com.m2cp.pool;
+
+import java.util.Arrays;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.Consumer;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Class that dispatches the events of a pool instance to its listeners. The listeners are held in an array that is
+ * replaced as a whole whenever a listener is added or removed, so firing an event takes no lock, and with no
+ * listeners it takes nothing but a read of the array length: the event itself is only built once there is someone
+ * to deliver it to. In asynchronous mode events are queued for a single listener thread shared by all pool
+ * instances, so that listeners see the events in order and never delay the thread causing them; if the listeners
+ * fall behind by more than the capacity of the queue, further events are dropped rather than blocking the pool
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+final class M2CPListeners
+{
+    // Max number of events waiting for the listener thread
+    private static final int QUEUE_CAPACITY = 8192;
+
+    // Time in milliseconds an idle listener thread is kept alive
+    private static final long KEEP_ALIVE = 5000;
+
+    // Pool instance the events come from
+    private final M2CP pool;
+
+    // Set if events are dispatched on the listener thread
+    private final boolean async;
+
+    // Current listeners, replaced as a whole on change
+    private volatile M2CPListener[] listeners;
+
+    /**
+     * Constructor for a dispatcher instance
+     * @param pool pool instance the events come from
+     * @param listeners initial listeners
+     * @param async true to dispatch events on the listener thread; false to call listeners directly
+     */
+    M2CPListeners(M2CP pool, M2CPListener[] listeners, boolean async) {
+        this.pool = pool;
+        this.listeners = listeners.clone();
+        this.async = async;
+    }
+
+    /**
+     * Adds a listener
+     * @param listener listener to be notified of the events
+     */
+    synchronized void add(M2CPListener listener) {
+        M2CPListener[] current = listeners;
+        M2CPListener[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = listener;
+        listeners = updated;
+    }
+
+    /**
+     * Removes a listener, if it has been added
+     * @param listener listener to be no longer notified
+     */
+    synchronized void remove(M2CPListener listener) {
+        M2CPListener[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == listener) {
+                M2CPListener[] updated = new M2CPListener[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                listeners = updated;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Fires the lease event
+     * @param waitNanos time in nanoseconds the caller has waited
+     */
+    void leased(long waitNanos) {
+        M2CPListener[] current = listeners;
+        if (current.length != 0) {
+            dispatch(current, listener -> listener.onLease(pool, waitNanos));
+        }
+    }
+
+    /**
+     * Fires the return event
+     * @param holdNanos time in nanoseconds the connection has been leased for
+     */
+    void returned(long holdNanos) {
+        M2CPListener[] current = listeners;
+        if (current.length != 0) {
+            dispatch(current, listener -> listener.onReturn(pool, holdNanos));
+        }
+    }
+
+    /**
+     * Fires the create event
+     * @param creationNanos time in nanoseconds taken to open the connection
+     */
+    void created(long creationNanos) {
+        M2CPListener[] current = listeners;
+        if (current.length != 0) {
+            dispatch(current, listener -> listener.onCreate(pool, creationNanos));
+        }
+    }
+
+    /**
+     * Fires the destroy event
+     */
+    void destroyed() {
+        M2CPListener[] current = listeners;
+        if (current.length != 0) {
+            dispatch(current, listener -> listener.onDestroy(pool));
+        }
+    }
+
+    /**
+     * Fires the validation failure event
+     */
+    void validationFailed() {
+        M2CPListener[] current = listeners;
+        if (current.length != 0) {
+            dispatch(current, listener -> listener.onValidationFailure(pool));
+        }
+    }
+
+    /**
+     * Fires the reclaim event
+     * @param leaseMillis time in milliseconds the connection had been leased for
+     */
+    void reclaimed(long leaseMillis) {
+        M2CPListener[] current = listeners;
+        if (current.length != 0) {
+            dispatch(current, listener -> listener.onReclaim(pool, leaseMillis));
+        }
+    }
+
+    /**
+     * Fires the pool exhausted event
+     * @param timeout time in milliseconds the caller has waited for
+     */
+    void exhausted(long timeout) {
+        M2CPListener[] current = listeners;
+        if (current.length != 0) {
+            dispatch(current, listener -> listener.onExhausted(pool, timeout));
+        }
+    }
+
+    /**
+     * This method delivers an event to the given listeners, either right away or on the listener thread
+     * @param current listeners at the time of the event
+     * @param event call of the listener method
+     */
+    private void dispatch(M2CPListener[] current, Consumer<M2CPListener> event) {
+        if (async) {
+            Dispatcher.EXECUTOR.execute(() -> deliver(current, event));
+        } else {
+            deliver(current, event);
+        }
+    }
+
+    /**
+     * This method calls each listener, so that a failing listener keeps neither the pool nor the other listeners
+     * from carrying on
+     * @param current listeners at the time of the event
+     * @param event call of the listener method
+     */
+    private static void deliver(M2CPListener[] current, Consumer<M2CPListener> event) {
+        for (M2CPListener listener : current) {
+            try {
+                event.accept(listener);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Holder of the listener thread, so that it is only created once some pool instance dispatches events
+     * asynchronously
+     */
+    private static final class Dispatcher
+    {
+        // Single listener thread with a bounded queue, dropping events once the queue is full
+        private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(1, 1, KEEP_ALIVE, MILLISECONDS,
+                new LinkedBlockingQueue<>(QUEUE_CAPACITY), new M2CPThreadFactory("listener"),
+                new ThreadPoolExecutor.DiscardPolicy());
+
+        static {
+            // The thread is only kept around while there are events to deliver
+            EXECUTOR.allowCoreThreadTimeOut(true);
+        }
+
+        private Dispatcher() {}
+    }
+}
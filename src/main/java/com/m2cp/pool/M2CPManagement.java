@@ -0,0 +1,236 @@
+package com.m2cp.pool;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Implementation of {@link M2CPPoolMXBean} for a pool instance. Each pool instance gets a unique id in its object
+ * name, so that a pool instance created for a datasource right after the previous one has been shut down never
+ * clashes with it. Settings are changed one at a time under the monitor of this instance, so that pool size and min
+ * idle are checked against each other consistently
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+final class M2CPManagement implements M2CPPoolMXBean
+{
+    // Sequence number of the next pool instance
+    private static final AtomicInteger sequence = new AtomicInteger(1);
+
+    // Managed pool instance and its settings
+    private final M2CP pool;
+    private final M2CPConfig config;
+
+    // Name this instance is registered under, or null if it is not registered
+    private ObjectName name;
+
+    /**
+     * Constructor for a management instance of the given pool instance
+     * @param pool managed pool instance
+     * @param config settings owned by the pool instance
+     */
+    M2CPManagement(M2CP pool, M2CPConfig config) {
+        this.pool = pool;
+        this.config = config;
+    }
+
+    /**
+     * Registers this instance with the platform MBean server. A failure is reported and otherwise ignored, as the
+     * pool works the same without it
+     */
+    synchronized void register() {
+        try {
+            ObjectName objectName = new ObjectName("com.m2cp.pool:type=Pool,id=" + sequence.getAndIncrement()
+                    + ",datasource=" + ObjectName.quote(pool.getKey().toString()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            name = objectName;
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Unregisters this instance from the platform MBean server, if it has been registered
+     */
+    synchronized void unregister() {
+        if (name == null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(name);
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+        name = null;
+    }
+
+    @Override
+    public String getDatasource() {
+        return pool.getKey().toString();
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return (int) pool.getLeasedWrappers().sum();
+    }
+
+    @Override
+    public int getIdleConnections() {
+        return Math.max(0, getTotalConnections() - getActiveConnections());
+    }
+
+    @Override
+    public int getTotalConnections() {
+        return pool.getWrapperList().size();
+    }
+
+    @Override
+    public int getPendingConnections() {
+        return pool.getPendingCount();
+    }
+
+    @Override
+    public int getWaitingThreads() {
+        return pool.getWaitingThreads();
+    }
+
+    @Override
+    public long getCreatedConnections() {
+        return pool.getStatistics().getCreatedConnections();
+    }
+
+    @Override
+    public long getDestroyedConnections() {
+        return pool.getStatistics().getDestroyedConnections();
+    }
+
+    @Override
+    public long getReclaimedLeases() {
+        return pool.getStatistics().getReclaimedLeases();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return pool.getStatistics().getTimeouts();
+    }
+
+    @Override
+    public int getPoolSize() {
+        return config.getPoolSize();
+    }
+
+    @Override
+    public synchronized void setPoolSize(int poolSize) {
+        if (poolSize < 1 || config.getMinIdle() > poolSize) {
+            throw new M2CPException("Failed to set pool size: " + poolSize
+                    + " is not a positive integer at least min idle " + config.getMinIdle());
+        }
+        config.setPoolSize(poolSize);
+        pool.settingsChanged();
+    }
+
+    @Override
+    public int getMinIdle() {
+        return config.getMinIdle();
+    }
+
+    @Override
+    public synchronized void setMinIdle(int minIdle) {
+        if (minIdle > config.getPoolSize()) {
+            throw new M2CPException("Failed to set min idle: " + minIdle + " exceeds pool size "
+                    + config.getPoolSize());
+        }
+        config.setMinIdle(minIdle);
+        pool.settingsChanged();
+    }
+
+    @Override
+    public long getMaxTimeLease() {
+        return config.getMaxTimeLease();
+    }
+
+    @Override
+    public synchronized void setMaxTimeLease(long maxTimeLease) {
+        checkPositive("max lease time", maxTimeLease);
+        config.setMaxTimeLease(maxTimeLease);
+        pool.settingsChanged();
+    }
+
+    @Override
+    public long getLeakDetectionThreshold() {
+        return config.getLeakDetectionThreshold();
+    }
+
+    @Override
+    public synchronized void setLeakDetectionThreshold(long leakDetectionThreshold) {
+        if (leakDetectionThreshold < 0) {
+            throw new M2CPException("Failed to set leak detection threshold: " + leakDetectionThreshold
+                    + " is not a non-negative integer");
+        }
+        config.setLeakDetectionThreshold(leakDetectionThreshold);
+        pool.settingsChanged();
+    }
+
+    @Override
+    public boolean isLeakWarnOnly() {
+        return config.isLeakWarnOnly();
+    }
+
+    @Override
+    public synchronized void setLeakWarnOnly(boolean leakWarnOnly) {
+        config.setLeakWarnOnly(leakWarnOnly);
+        pool.settingsChanged();
+    }
+
+    @Override
+    public long getIdleTimeout() {
+        return config.getIdleTimeout();
+    }
+
+    @Override
+    public synchronized void setIdleTimeout(long idleTimeout) {
+        checkPositive("idle timeout", idleTimeout);
+        config.setIdleTimeout(idleTimeout);
+    }
+
+    @Override
+    public long getMaxTimeIdle() {
+        return config.getMaxTimeIdle();
+    }
+
+    @Override
+    public synchronized void setMaxTimeIdle(long maxTimeIdle) {
+        checkPositive("max idle time", maxTimeIdle);
+        config.setMaxTimeIdle(maxTimeIdle);
+        pool.settingsChanged();
+    }
+
+    @Override
+    public long getConnectionTimeout() {
+        return config.getConnectionTimeout();
+    }
+
+    @Override
+    public synchronized void setConnectionTimeout(long connectionTimeout) {
+        if (connectionTimeout < 0) {
+            throw new M2CPException("Failed to set connection timeout: " + connectionTimeout
+                    + " is not a non-negative integer");
+        }
+        config.setConnectionTimeout(connectionTimeout);
+    }
+
+    /**
+     * Checks that a time setting is positive, as required by {@link M2CPConfig#validate()}
+     * @param setting name of the setting for the error message
+     * @param value time in milliseconds
+     * @throws M2CPException if the value is zero or negative
+     */
+    private static void checkPositive(String setting, long value) {
+        if (value < 1) {
+            throw new M2CPException("Failed to set " + setting + ": " + value + " is not a positive integer");
+        }
+    }
+}
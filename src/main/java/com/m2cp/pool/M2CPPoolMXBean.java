@@ -0,0 +1,172 @@
+package com.m2cp.pool;
+
+/**
+ * Management interface of a pool instance, registered with the platform MBean server under the name
+ * "com.m2cp.pool:type=Pool,id=...,datasource=..." unless JMX is disabled in the settings. Gauges and counters are
+ * read from counters maintained along the way, so polling them costs the pool nothing, and a set of values read
+ * at the same time is not necessarily consistent. Changes to the settings take effect on the running pool instance
+ * right away and are not carried over to a new pool instance for the same datasource
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+public interface M2CPPoolMXBean
+{
+    /**
+     * Gets datasource of the pool instance
+     * @return database url along with the names of the connection properties
+     */
+    String getDatasource();
+
+    /**
+     * Gets number of connections currently leased by the user app
+     * @return number of connections
+     */
+    int getActiveConnections();
+
+    /**
+     * Gets number of open connections currently not leased, including those being validated in the background
+     * @return number of connections
+     */
+    int getIdleConnections();
+
+    /**
+     * Gets number of open connections
+     * @return number of connections
+     */
+    int getTotalConnections();
+
+    /**
+     * Gets number of connections being opened in the background
+     * @return number of connections
+     */
+    int getPendingConnections();
+
+    /**
+     * Gets number of threads waiting for a connection
+     * @return number of threads
+     */
+    int getWaitingThreads();
+
+    /**
+     * Gets number of physical connections opened since the pool instance has been created
+     * @return number of connections
+     */
+    long getCreatedConnections();
+
+    /**
+     * Gets number of physical connections closed since the pool instance has been created
+     * @return number of connections
+     */
+    long getDestroyedConnections();
+
+    /**
+     * Gets number of leases reclaimed after max lease time since the pool instance has been created
+     * @return number of leases
+     */
+    long getReclaimedLeases();
+
+    /**
+     * Gets number of callers that got no connection within the connection timeout since the pool instance has
+     * been created
+     * @return number of callers
+     */
+    long getTimeouts();
+
+    /**
+     * Gets pool size
+     * @return max number of open connections in the pool
+     */
+    int getPoolSize();
+
+    /**
+     * Sets pool size. A larger pool opens more connections on demand, while a smaller one closes idle connections
+     * beyond the new size in the next cleaner cycle; leased connections are closed once they are returned and idle
+     * @param poolSize max number of open connections in the pool, not below min idle
+     */
+    void setPoolSize(int poolSize);
+
+    /**
+     * Gets min number of connections kept open when idle
+     * @return number of connections, or a negative value if it is the same as the pool size
+     */
+    int getMinIdle();
+
+    /**
+     * Sets min number of connections kept open when idle. Missing connections are opened right away
+     * @param minIdle number of connections not above pool size, or a negative value for the same as the pool size
+     */
+    void setMinIdle(int minIdle);
+
+    /**
+     * Gets a connection max lease time before it gets reclaimed
+     * @return time in milliseconds
+     */
+    long getMaxTimeLease();
+
+    /**
+     * Sets a connection max lease time before it gets reclaimed. Applies to the current leases as well
+     * @param maxTimeLease time in milliseconds
+     */
+    void setMaxTimeLease(long maxTimeLease);
+
+    /**
+     * Gets lease time after which a lease gets reported as a possible connection leak
+     * @return time in milliseconds, zero if leak detection is disabled
+     */
+    long getLeakDetectionThreshold();
+
+    /**
+     * Sets lease time after which a lease gets reported as a possible connection leak. Applies to the current
+     * leases as well
+     * @param leakDetectionThreshold time in milliseconds, zero to disable leak detection
+     */
+    void setLeakDetectionThreshold(long leakDetectionThreshold);
+
+    /**
+     * Gets warn-only mode of leak detection
+     * @return true if expired leases are only reported; false if they are reclaimed
+     */
+    boolean isLeakWarnOnly();
+
+    /**
+     * Sets warn-only mode of leak detection. Applies to the current leases as well
+     * @param leakWarnOnly true to only report expired leases; false to reclaim them
+     */
+    void setLeakWarnOnly(boolean leakWarnOnly);
+
+    /**
+     * Gets max time a single connection beyond the min idle number may stay idle
+     * @return time in milliseconds
+     */
+    long getIdleTimeout();
+
+    /**
+     * Sets max time a single connection beyond the min idle number may stay idle before it gets closed
+     * @param idleTimeout time in milliseconds
+     */
+    void setIdleTimeout(long idleTimeout);
+
+    /**
+     * Gets pool max idle time before it gets shut down
+     * @return time in milliseconds
+     */
+    long getMaxTimeIdle();
+
+    /**
+     * Sets pool max idle time before it gets shut down, or idle connections get validated in keep-warm mode
+     * @param maxTimeIdle time in milliseconds
+     */
+    void setMaxTimeIdle(long maxTimeIdle);
+
+    /**
+     * Gets max time a caller waits for an available connection
+     * @return time in milliseconds
+     */
+    long getConnectionTimeout();
+
+    /**
+     * Sets max time a caller waits for an available connection. Applies to callers that start waiting afterwards
+     * @param connectionTimeout time in milliseconds, zero to fail immediately
+     */
+    void setConnectionTimeout(long connectionTimeout);
+}
@@ -0,0 +1,479 @@
+package com.m2cp.pool;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.*;
+import java.util.Calendar;
+
+/**
+ * The wrapper class for {@link PreparedStatement} implementation. If the statement has been taken from the
+ * statement cache of the connection wrapper, closing it puts the real statement back into the cache instead of
+ * closing it. Before that, the result sets are closed and the parameters are cleared, and the query timeout,
+ * max rows and fetch size are restored to the values the driver gave them if the user app has changed them. A
+ * statement with other settings changed, e.g. the cursor name or the fetch direction, is closed for real instead,
+ * as is a statement whose connection wrapper has already been removed from the pool
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+class M2CPPreparedStatement extends M2CPStatement implements PreparedStatement
+{
+    // An actual instance of java.sql.PreparedStatement implementation
+    private final PreparedStatement realStatement;
+
+    // Cache the real statement is put back into on close, and its key, or null if the statement is not cached
+    private final M2CPStatementCache cache;
+    private final M2CPStatementKey key;
+
+    // Limits changed by the user app, along with the values the driver gave them, captured before the first change
+    private boolean queryTimeoutChanged = false;
+    private boolean maxRowsChanged = false;
+    private boolean fetchSizeChanged = false;
+    private int defaultQueryTimeout;
+    private int defaultMaxRows;
+    private int defaultFetchSize;
+
+    // Wrapper properties, accessed only by the thread using the statement
+    private boolean batched = false;
+    private boolean reusable = true;
+
+    /**
+     * Constructor for a wrapper instance that substitutes actual {@link PreparedStatement} implementation instance
+     * @param realStatement an instance of {@link PreparedStatement} implementation
+     * @param connection the connection wrapper this statement has been created through
+     * @param cache statement cache to put the real statement back into on close, or null if it is not cached
+     * @param key key of the statement in the cache, or null if it is not cached
+     */
+    M2CPPreparedStatement(PreparedStatement realStatement, M2CPWrapper connection, M2CPStatementCache cache,
+                          M2CPStatementKey key) {
+        super(realStatement, connection);
+        this.realStatement = realStatement;
+        this.cache = cache;
+        this.key = key;
+    }
+
+    @Override
+    PreparedStatement delegate() throws SQLException {
+        checkOpen();
+        return realStatement;
+    }
+
+    @Override
+    PreparedStatement execution() throws SQLException {
+        super.execution();
+        return realStatement;
+    }
+
+    /**
+     * This method either puts the real statement back into the statement cache, or closes it if the statement is
+     * not cached or can't be reused. A statement that fails to be cleaned up gets closed
+     * @throws SQLException if {@link PreparedStatement#close()} method fails
+     */
+    @Override
+    void release() throws SQLException {
+        if (cache == null || !reusable || getWrapper().isRemoved() || realStatement.isClosed()) {
+            realStatement.close();
+            return;
+        }
+
+        try {
+            ResultSet resultSet = realStatement.getResultSet();
+            if (resultSet != null) {
+                resultSet.close();
+            }
+            realStatement.clearParameters();
+            if (batched) {
+                realStatement.clearBatch();
+            }
+            if (queryTimeoutChanged) {
+                realStatement.setQueryTimeout(defaultQueryTimeout);
+            }
+            if (maxRowsChanged) {
+                realStatement.setMaxRows(defaultMaxRows);
+            }
+            if (fetchSizeChanged) {
+                realStatement.setFetchSize(defaultFetchSize);
+            }
+            realStatement.clearWarnings();
+        } catch (SQLException e) {
+            realStatement.close();
+            return;
+        }
+        cache.release(key, realStatement);
+    }
+
+    /**
+     * This method captures the value the driver gave to max rows before the user app changes it for the first time.
+     * A statement taken from the cache has been restored on release, so the value is the one it was prepared with
+     * @throws SQLException if the driver fails to get max rows
+     */
+    private void captureMaxRows() throws SQLException {
+        if (!maxRowsChanged) {
+            defaultMaxRows = delegate().getMaxRows();
+            maxRowsChanged = true;
+        }
+    }
+
+    // Following are the settings tracked to decide whether the real statement can be reused
+
+    @Override
+    public void setQueryTimeout(int seconds) throws SQLException {
+        if (!queryTimeoutChanged) {
+            defaultQueryTimeout = delegate().getQueryTimeout();
+            queryTimeoutChanged = true;
+        }
+        delegate().setQueryTimeout(seconds);
+    }
+
+    @Override
+    public void setMaxRows(int max) throws SQLException {
+        captureMaxRows();
+        delegate().setMaxRows(max);
+    }
+
+    @Override
+    public void setLargeMaxRows(long max) throws SQLException {
+        captureMaxRows();
+        delegate().setLargeMaxRows(max);
+    }
+
+    @Override
+    public void setFetchSize(int rows) throws SQLException {
+        if (!fetchSizeChanged) {
+            defaultFetchSize = delegate().getFetchSize();
+            fetchSizeChanged = true;
+        }
+        delegate().setFetchSize(rows);
+    }
+
+    @Override
+    public void addBatch() throws SQLException {
+        delegate().addBatch();
+        batched = true;
+    }
+
+    @Override
+    public void setMaxFieldSize(int max) throws SQLException {
+        delegate().setMaxFieldSize(max);
+        reusable = false;
+    }
+
+    @Override
+    public void setEscapeProcessing(boolean enable) throws SQLException {
+        delegate().setEscapeProcessing(enable);
+        reusable = false;
+    }
+
+    @Override
+    public void setCursorName(String name) throws SQLException {
+        delegate().setCursorName(name);
+        reusable = false;
+    }
+
+    @Override
+    public void setFetchDirection(int direction) throws SQLException {
+        delegate().setFetchDirection(direction);
+        reusable = false;
+    }
+
+    @Override
+    public void setPoolable(boolean poolable) throws SQLException {
+        delegate().setPoolable(poolable);
+        reusable = poolable;
+    }
+
+    @Override
+    public void closeOnCompletion() throws SQLException {
+        delegate().closeOnCompletion();
+        reusable = false;
+    }
+
+    // Following are the original methods from java.sql.PreparedStatement interface
+
+    @Override
+    public ResultSet executeQuery() throws SQLException {
+        return wrapResultSet(execution().executeQuery());
+    }
+
+    @Override
+    public int executeUpdate() throws SQLException {
+        return execution().executeUpdate();
+    }
+
+    @Override
+    public void setNull(int parameterIndex, int sqlType) throws SQLException {
+        delegate().setNull(parameterIndex, sqlType);
+    }
+
+    @Override
+    public void setBoolean(int parameterIndex, boolean x) throws SQLException {
+        delegate().setBoolean(parameterIndex, x);
+    }
+
+    @Override
+    public void setByte(int parameterIndex, byte x) throws SQLException {
+        delegate().setByte(parameterIndex, x);
+    }
+
+    @Override
+    public void setShort(int parameterIndex, short x) throws SQLException {
+        delegate().setShort(parameterIndex, x);
+    }
+
+    @Override
+    public void setInt(int parameterIndex, int x) throws SQLException {
+        delegate().setInt(parameterIndex, x);
+    }
+
+    @Override
+    public void setLong(int parameterIndex, long x) throws SQLException {
+        delegate().setLong(parameterIndex, x);
+    }
+
+    @Override
+    public void setFloat(int parameterIndex, float x) throws SQLException {
+        delegate().setFloat(parameterIndex, x);
+    }
+
+    @Override
+    public void setDouble(int parameterIndex, double x) throws SQLException {
+        delegate().setDouble(parameterIndex, x);
+    }
+
+    @Override
+    public void setBigDecimal(int parameterIndex, BigDecimal x) throws SQLException {
+        delegate().setBigDecimal(parameterIndex, x);
+    }
+
+    @Override
+    public void setString(int parameterIndex, String x) throws SQLException {
+        delegate().setString(parameterIndex, x);
+    }
+
+    @Override
+    public void setBytes(int parameterIndex, byte[] x) throws SQLException {
+        delegate().setBytes(parameterIndex, x);
+    }
+
+    @Override
+    public void setDate(int parameterIndex, Date x) throws SQLException {
+        delegate().setDate(parameterIndex, x);
+    }
+
+    @Override
+    public void setTime(int parameterIndex, Time x) throws SQLException {
+        delegate().setTime(parameterIndex, x);
+    }
+
+    @Override
+    public void setTimestamp(int parameterIndex, Timestamp x) throws SQLException {
+        delegate().setTimestamp(parameterIndex, x);
+    }
+
+    @Override
+    public void setAsciiStream(int parameterIndex, InputStream x, int length) throws SQLException {
+        delegate().setAsciiStream(parameterIndex, x, length);
+    }
+
+    @Deprecated
+    @Override
+    public void setUnicodeStream(int parameterIndex, InputStream x, int length) throws SQLException {
+        delegate().setUnicodeStream(parameterIndex, x, length);
+    }
+
+    @Override
+    public void setBinaryStream(int parameterIndex, InputStream x, int length) throws SQLException {
+        delegate().setBinaryStream(parameterIndex, x, length);
+    }
+
+    @Override
+    public void clearParameters() throws SQLException {
+        delegate().clearParameters();
+    }
+
+    @Override
+    public void setObject(int parameterIndex, Object x, int targetSqlType) throws SQLException {
+        delegate().setObject(parameterIndex, x, targetSqlType);
+    }
+
+    @Override
+    public void setObject(int parameterIndex, Object x) throws SQLException {
+        delegate().setObject(parameterIndex, x);
+    }
+
+    @Override
+    public boolean execute() throws SQLException {
+        return execution().execute();
+    }
+
+    @Override
+    public void setCharacterStream(int parameterIndex, Reader reader, int length) throws SQLException {
+        delegate().setCharacterStream(parameterIndex, reader, length);
+    }
+
+    @Override
+    public void setRef(int parameterIndex, Ref x) throws SQLException {
+        delegate().setRef(parameterIndex, x);
+    }
+
+    @Override
+    public void setBlob(int parameterIndex, Blob x) throws SQLException {
+        delegate().setBlob(parameterIndex, x);
+    }
+
+    @Override
+    public void setClob(int parameterIndex, Clob x) throws SQLException {
+        delegate().setClob(parameterIndex, x);
+    }
+
+    @Override
+    public void setArray(int parameterIndex, Array x) throws SQLException {
+        delegate().setArray(parameterIndex, x);
+    }
+
+    @Override
+    public ResultSetMetaData getMetaData() throws SQLException {
+        return delegate().getMetaData();
+    }
+
+    @Override
+    public void setDate(int parameterIndex, Date x, Calendar cal) throws SQLException {
+        delegate().setDate(parameterIndex, x, cal);
+    }
+
+    @Override
+    public void setTime(int parameterIndex, Time x, Calendar cal) throws SQLException {
+        delegate().setTime(parameterIndex, x, cal);
+    }
+
+    @Override
+    public void setTimestamp(int parameterIndex, Timestamp x, Calendar cal) throws SQLException {
+        delegate().setTimestamp(parameterIndex, x, cal);
+    }
+
+    @Override
+    public void setNull(int parameterIndex, int sqlType, String typeName) throws SQLException {
+        delegate().setNull(parameterIndex, sqlType, typeName);
+    }
+
+    @Override
+    public void setURL(int parameterIndex, URL x) throws SQLException {
+        delegate().setURL(parameterIndex, x);
+    }
+
+    @Override
+    public ParameterMetaData getParameterMetaData() throws SQLException {
+        return delegate().getParameterMetaData();
+    }
+
+    @Override
+    public void setRowId(int parameterIndex, RowId x) throws SQLException {
+        delegate().setRowId(parameterIndex, x);
+    }
+
+    @Override
+    public void setNString(int parameterIndex, String value) throws SQLException {
+        delegate().setNString(parameterIndex, value);
+    }
+
+    @Override
+    public void setNCharacterStream(int parameterIndex, Reader value, long length) throws SQLException {
+        delegate().setNCharacterStream(parameterIndex, value, length);
+    }
+
+    @Override
+    public void setNClob(int parameterIndex, NClob value) throws SQLException {
+        delegate().setNClob(parameterIndex, value);
+    }
+
+    @Override
+    public void setClob(int parameterIndex, Reader reader, long length) throws SQLException {
+        delegate().setClob(parameterIndex, reader, length);
+    }
+
+    @Override
+    public void setBlob(int parameterIndex, InputStream inputStream, long length) throws SQLException {
+        delegate().setBlob(parameterIndex, inputStream, length);
+    }
+
+    @Override
+    public void setNClob(int parameterIndex, Reader reader, long length) throws SQLException {
+        delegate().setNClob(parameterIndex, reader, length);
+    }
+
+    @Override
+    public void setSQLXML(int parameterIndex, SQLXML xmlObject) throws SQLException {
+        delegate().setSQLXML(parameterIndex, xmlObject);
+    }
+
+    @Override
+    public void setObject(int parameterIndex, Object x, int targetSqlType, int scaleOrLength) throws SQLException {
+        delegate().setObject(parameterIndex, x, targetSqlType, scaleOrLength);
+    }
+
+    @Override
+    public void setAsciiStream(int parameterIndex, InputStream x, long length) throws SQLException {
+        delegate().setAsciiStream(parameterIndex, x, length);
+    }
+
+    @Override
+    public void setBinaryStream(int parameterIndex, InputStream x, long length) throws SQLException {
+        delegate().setBinaryStream(parameterIndex, x, length);
+    }
+
+    @Override
+    public void setCharacterStream(int parameterIndex, Reader reader, long length) throws SQLException {
+        delegate().setCharacterStream(parameterIndex, reader, length);
+    }
+
+    @Override
+    public void setAsciiStream(int parameterIndex, InputStream x) throws SQLException {
+        delegate().setAsciiStream(parameterIndex, x);
+    }
+
+    @Override
+    public void setBinaryStream(int parameterIndex, InputStream x) throws SQLException {
+        delegate().setBinaryStream(parameterIndex, x);
+    }
+
+    @Override
+    public void setCharacterStream(int parameterIndex, Reader reader) throws SQLException {
+        delegate().setCharacterStream(parameterIndex, reader);
+    }
+
+    @Override
+    public void setNCharacterStream(int parameterIndex, Reader value) throws SQLException {
+        delegate().setNCharacterStream(parameterIndex, value);
+    }
+
+    @Override
+    public void setClob(int parameterIndex, Reader reader) throws SQLException {
+        delegate().setClob(parameterIndex, reader);
+    }
+
+    @Override
+    public void setBlob(int parameterIndex, InputStream inputStream) throws SQLException {
+        delegate().setBlob(parameterIndex, inputStream);
+    }
+
+    @Override
+    public void setNClob(int parameterIndex, Reader reader) throws SQLException {
+        delegate().setNClob(parameterIndex, reader);
+    }
+
+    @Override
+    public void setObject(int parameterIndex, Object x, SQLType targetSqlType, int scaleOrLength) throws SQLException {
+        delegate().setObject(parameterIndex, x, targetSqlType, scaleOrLength);
+    }
+
+    @Override
+    public void setObject(int parameterIndex, Object x, SQLType targetSqlType) throws SQLException {
+        delegate().setObject(parameterIndex, x, targetSqlType);
+    }
+
+    @Override
+    public long executeLargeUpdate() throws SQLException {
+        return execution().executeLargeUpdate();
+    }
+}
@@ -0,0 +1,72 @@
+package com.m2cp.pool;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * This class holds a single scheduler shared by all pool instances to run their maintenance tasks, e.g. reclaiming
+ * expired leases, retiring idle wrappers, validation and replenishment. Each task gets scheduled with its own
+ * interval, so the number of maintenance threads does not grow with the number of pool instances. Tasks are meant
+ * to be short: anything that may block on the network for long is expected to be handed over to the connector
+ * threads of the respective pool instance. The scheduler thread is a daemon thread, started with the first task
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+final class M2CPScheduler
+{
+    // Scheduler shared by all pool instances
+    private static final ScheduledThreadPoolExecutor EXECUTOR = createExecutor();
+
+    private M2CPScheduler() {}
+
+    /**
+     * This method creates the shared scheduler. Cancelled tasks are removed from its queue straight away, so that
+     * pool instances that have been shut down do not linger in memory until their next run
+     * @return an instance of {@link ScheduledThreadPoolExecutor} class
+     */
+    private static ScheduledThreadPoolExecutor createExecutor() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+                new M2CPThreadFactory("maintenance"));
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    /**
+     * Schedules a task to be run repeatedly with the given interval between the end of one run and the start of
+     * the next one. An exception thrown by the task is reported and does not cancel subsequent runs
+     * @param task maintenance task
+     * @param interval time in milliseconds
+     * @return handle to cancel the task
+     */
+    static ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, long interval) {
+        return EXECUTOR.scheduleWithFixedDelay(guard(task), interval, interval, MILLISECONDS);
+    }
+
+    /**
+     * Schedules a task to be run once after the given delay
+     * @param task maintenance task
+     * @param delay time in milliseconds
+     * @return handle to cancel the task
+     */
+    static ScheduledFuture<?> schedule(Runnable task, long delay) {
+        return EXECUTOR.schedule(guard(task), delay, MILLISECONDS);
+    }
+
+    /**
+     * This method wraps a task so that an unexpected exception gets reported instead of silently suppressing all
+     * further runs of the task
+     * @param task maintenance task
+     * @return guarded task
+     */
+    private static Runnable guard(Runnable task) {
+        return () -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        };
+    }
+}
@@ -0,0 +1,455 @@
+package com.m2cp.pool;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The wrapper class for {@link Statement} implementation, handed to the user app instead of the statement created by
+ * the driver. All calls are delegated to the real statement as long as this wrapper is open, and fail once it has
+ * been closed, even if the real statement lives on. The connection of the statement is reported as the connection
+ * wrapper it has been created through, so the user app never gets hold of the real connection this way. Each
+ * statement wrapper is tracked by its connection wrapper, and wraps the result sets it opens in turn, so that the
+ * statements and result sets the user app has left open get closed when the connection is returned to the pool
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+class M2CPStatement implements Statement
+{
+    // Connection wrapper this statement has been created through
+    private final M2CPWrapper connection;
+
+    // An actual instance of java.sql.Statement implementation
+    private final Statement realStatement;
+
+    // Result sets opened through this statement and not closed yet, created on demand
+    private List<M2CPResultSet> openResultSets;
+
+    // Wrapper property, accessed only by the thread using the statement
+    private boolean closed = false;
+
+    /**
+     * Constructor for a wrapper instance that substitutes actual {@link Statement} implementation instance
+     * @param realStatement an instance of {@link Statement} implementation
+     * @param connection the connection wrapper this statement has been created through
+     */
+    M2CPStatement(Statement realStatement, M2CPWrapper connection) {
+        this.realStatement = realStatement;
+        this.connection = connection;
+    }
+
+    /**
+     * Gets the real statement that calls are delegated to. Subclasses narrow down its type
+     * @return an instance of {@link Statement} implementation
+     * @throws SQLException if this wrapper has been closed
+     */
+    Statement delegate() throws SQLException {
+        checkOpen();
+        return realStatement;
+    }
+
+    /**
+     * Gets the connection wrapper this statement has been created through
+     * @return an instance of {@link M2CPWrapper} class
+     */
+    final M2CPWrapper getWrapper() {
+        return connection;
+    }
+
+    /**
+     * Checks that this wrapper has not been closed yet
+     * @throws SQLException if this wrapper has been closed
+     */
+    final void checkOpen() throws SQLException {
+        if (closed) {
+            throw new SQLException("Statement is closed");
+        }
+    }
+
+    /**
+     * Marks this wrapper as closed, so that all further calls fail
+     * @return true if the wrapper has been closed by this call; false if it had already been closed
+     */
+    final boolean markClosed() {
+        if (closed) {
+            return false;
+        }
+        closed = true;
+        return true;
+    }
+
+    /**
+     * Gets the real statement to execute SQL on. Executing a statement implicitly closes the result sets it has
+     * opened before, so their wrappers are closed and dropped first, and a statement executed over and over again
+     * keeps tracking the result sets of the last execution only
+     * @return an instance of {@link Statement} implementation
+     * @throws SQLException if this wrapper has been closed, or one of its result sets fails to be closed
+     */
+    Statement execution() throws SQLException {
+        Statement statement = delegate();
+        closeResultSets();
+        return statement;
+    }
+
+    /**
+     * This method wraps a result set opened through this statement and keeps track of it, so that it gets closed
+     * along with the statement. Asking for the current result set repeatedly yields the same wrapper. Before a new
+     * wrapper is tracked, the wrappers of the result sets the driver has closed meanwhile are dropped
+     * @param realResultSet an instance of {@link ResultSet} implementation, or null
+     * @return an instance of {@link M2CPResultSet} class, or null if there is no result set
+     */
+    final ResultSet wrapResultSet(ResultSet realResultSet) {
+        if (realResultSet == null) {
+            return null;
+        }
+        if (openResultSets == null) {
+            openResultSets = new ArrayList<>(1);
+        }
+        for (M2CPResultSet resultSet : openResultSets) {
+            if (resultSet.isWrapping(realResultSet)) {
+                return resultSet;
+            }
+        }
+        dropClosedResultSets();
+        M2CPResultSet resultSet = new M2CPResultSet(realResultSet, this);
+        openResultSets.add(resultSet);
+        return resultSet;
+    }
+
+    /**
+     * This method stops tracking the result sets that the driver has closed, e.g. the current one on moving to the
+     * next result
+     */
+    private void dropClosedResultSets() {
+        if (openResultSets != null && !openResultSets.isEmpty()) {
+            openResultSets.removeIf(M2CPResultSet::closeIfReleased);
+        }
+    }
+
+    /**
+     * This method closes the result sets still open, and stops tracking them
+     * @throws SQLException if one of the result sets fails to be closed, after all of them have been closed
+     */
+    private void closeResultSets() throws SQLException {
+        if (openResultSets == null || openResultSets.isEmpty()) {
+            return;
+        }
+        SQLException failure = null;
+        // Each wrapper is removed before it is closed, so that closing it does not look it up in the list
+        for (int i = openResultSets.size() - 1; i >= 0; i--) {
+            try {
+                openResultSets.remove(i).close();
+            } catch (SQLException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * This method stops tracking a result set that has been closed by the user app
+     * @param resultSet an instance of {@link M2CPResultSet} class
+     */
+    final void forgetResultSet(M2CPResultSet resultSet) {
+        openResultSets.remove(resultSet);
+    }
+
+    /**
+     * This method closes this wrapper: the result sets still open are closed, the statement stops being tracked by
+     * its connection wrapper, and the real statement is released
+     * @throws SQLException if the real statement or one of its result sets fails to be closed
+     */
+    @Override
+    public final void close() throws SQLException {
+        if (!markClosed()) {
+            return;
+        }
+        connection.forgetStatement(this);
+
+        try {
+            closeResultSets();
+        } catch (SQLException e) {
+            realStatement.close();
+            throw e;
+        }
+        release();
+    }
+
+    /**
+     * This method releases the real statement once this wrapper has been closed. The real statement is closed,
+     * unless a subclass keeps it for reuse
+     * @throws SQLException if {@link Statement#close()} method fails
+     */
+    void release() throws SQLException {
+        realStatement.close();
+    }
+
+    @Override
+    public boolean isClosed() throws SQLException {
+        return closed || realStatement.isClosed();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        checkOpen();
+        return connection;
+    }
+
+    // Following are the original methods from java.sql.Statement interface
+
+    @Override
+    public ResultSet executeQuery(String sql) throws SQLException {
+        return wrapResultSet(execution().executeQuery(sql));
+    }
+
+    @Override
+    public int executeUpdate(String sql) throws SQLException {
+        return execution().executeUpdate(sql);
+    }
+
+    @Override
+    public int getMaxFieldSize() throws SQLException {
+        return delegate().getMaxFieldSize();
+    }
+
+    @Override
+    public void setMaxFieldSize(int max) throws SQLException {
+        delegate().setMaxFieldSize(max);
+    }
+
+    @Override
+    public int getMaxRows() throws SQLException {
+        return delegate().getMaxRows();
+    }
+
+    @Override
+    public void setMaxRows(int max) throws SQLException {
+        delegate().setMaxRows(max);
+    }
+
+    @Override
+    public void setEscapeProcessing(boolean enable) throws SQLException {
+        delegate().setEscapeProcessing(enable);
+    }
+
+    @Override
+    public int getQueryTimeout() throws SQLException {
+        return delegate().getQueryTimeout();
+    }
+
+    @Override
+    public void setQueryTimeout(int seconds) throws SQLException {
+        delegate().setQueryTimeout(seconds);
+    }
+
+    @Override
+    public void cancel() throws SQLException {
+        delegate().cancel();
+    }
+
+    @Override
+    public SQLWarning getWarnings() throws SQLException {
+        return delegate().getWarnings();
+    }
+
+    @Override
+    public void clearWarnings() throws SQLException {
+        delegate().clearWarnings();
+    }
+
+    @Override
+    public void setCursorName(String name) throws SQLException {
+        delegate().setCursorName(name);
+    }
+
+    @Override
+    public boolean execute(String sql) throws SQLException {
+        return execution().execute(sql);
+    }
+
+    @Override
+    public ResultSet getResultSet() throws SQLException {
+        return wrapResultSet(delegate().getResultSet());
+    }
+
+    @Override
+    public int getUpdateCount() throws SQLException {
+        return delegate().getUpdateCount();
+    }
+
+    @Override
+    public boolean getMoreResults() throws SQLException {
+        boolean more = delegate().getMoreResults();
+        dropClosedResultSets();
+        return more;
+    }
+
+    @Override
+    public void setFetchDirection(int direction) throws SQLException {
+        delegate().setFetchDirection(direction);
+    }
+
+    @Override
+    public int getFetchDirection() throws SQLException {
+        return delegate().getFetchDirection();
+    }
+
+    @Override
+    public void setFetchSize(int rows) throws SQLException {
+        delegate().setFetchSize(rows);
+    }
+
+    @Override
+    public int getFetchSize() throws SQLException {
+        return delegate().getFetchSize();
+    }
+
+    @Override
+    public int getResultSetConcurrency() throws SQLException {
+        return delegate().getResultSetConcurrency();
+    }
+
+    @Override
+    public int getResultSetType() throws SQLException {
+        return delegate().getResultSetType();
+    }
+
+    @Override
+    public void addBatch(String sql) throws SQLException {
+        delegate().addBatch(sql);
+    }
+
+    @Override
+    public void clearBatch() throws SQLException {
+        delegate().clearBatch();
+    }
+
+    @Override
+    public int[] executeBatch() throws SQLException {
+        return execution().executeBatch();
+    }
+
+    @Override
+    public boolean getMoreResults(int current) throws SQLException {
+        boolean more = delegate().getMoreResults(current);
+        dropClosedResultSets();
+        return more;
+    }
+
+    @Override
+    public ResultSet getGeneratedKeys() throws SQLException {
+        return wrapResultSet(delegate().getGeneratedKeys());
+    }
+
+    @Override
+    public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+        return execution().executeUpdate(sql, autoGeneratedKeys);
+    }
+
+    @Override
+    public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+        return execution().executeUpdate(sql, columnIndexes);
+    }
+
+    @Override
+    public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+        return execution().executeUpdate(sql, columnNames);
+    }
+
+    @Override
+    public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+        return execution().execute(sql, autoGeneratedKeys);
+    }
+
+    @Override
+    public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+        return execution().execute(sql, columnIndexes);
+    }
+
+    @Override
+    public boolean execute(String sql, String[] columnNames) throws SQLException {
+        return execution().execute(sql, columnNames);
+    }
+
+    @Override
+    public int getResultSetHoldability() throws SQLException {
+        return delegate().getResultSetHoldability();
+    }
+
+    @Override
+    public void setPoolable(boolean poolable) throws SQLException {
+        delegate().setPoolable(poolable);
+    }
+
+    @Override
+    public boolean isPoolable() throws SQLException {
+        return delegate().isPoolable();
+    }
+
+    @Override
+    public void closeOnCompletion() throws SQLException {
+        delegate().closeOnCompletion();
+    }
+
+    @Override
+    public boolean isCloseOnCompletion() throws SQLException {
+        return delegate().isCloseOnCompletion();
+    }
+
+    @Override
+    public long getLargeUpdateCount() throws SQLException {
+        return delegate().getLargeUpdateCount();
+    }
+
+    @Override
+    public void setLargeMaxRows(long max) throws SQLException {
+        delegate().setLargeMaxRows(max);
+    }
+
+    @Override
+    public long getLargeMaxRows() throws SQLException {
+        return delegate().getLargeMaxRows();
+    }
+
+    @Override
+    public long[] executeLargeBatch() throws SQLException {
+        return execution().executeLargeBatch();
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql) throws SQLException {
+        return execution().executeLargeUpdate(sql);
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+        return execution().executeLargeUpdate(sql, autoGeneratedKeys);
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql, int[] columnIndexes) throws SQLException {
+        return execution().executeLargeUpdate(sql, columnIndexes);
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql, String[] columnNames) throws SQLException {
+        return execution().executeLargeUpdate(sql, columnNames);
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        // The real statement reports the real connection, through which the session may be changed
+        T unwrapped = delegate().unwrap(iface);
+        connection.invalidateSessionState(unwrapped);
+        return unwrapped;
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return delegate().isWrapperFor(iface);
+    }
+}
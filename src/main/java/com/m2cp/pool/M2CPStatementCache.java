@@ -0,0 +1,79 @@
+package com.m2cp.pool;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Class that caches prepared statements of a single connection wrapper, so that statements executed over and over
+ * again are parsed and planned by the database only once per connection. The cache holds only statements that are
+ * not in use: a statement is taken out of the cache when the user app prepares it, and is put back when the user
+ * app closes it. Once the cache is full, the least recently used statement gets closed for real. Like the wrapper
+ * itself, the cache is accessed only by the thread owning the wrapper, so it needs no synchronization
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+final class M2CPStatementCache
+{
+    // Max number of idle statements held by the cache
+    private final int maxSize;
+
+    // Statistics of the pool instance the wrapper belongs to
+    private final M2CPStatistics statistics;
+
+    // Idle statements in access order, least recently used first, so that releasing a statement moves it to the end
+    // even if the cache already holds one with the same key
+    private final LinkedHashMap<M2CPStatementKey, PreparedStatement> statements =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Constructor for a cache instance
+     * @param maxSize max number of idle statements held by the cache
+     * @param statistics statistics of the pool instance to record hits, misses and evictions
+     */
+    M2CPStatementCache(int maxSize, M2CPStatistics statistics) {
+        this.maxSize = maxSize;
+        this.statistics = statistics;
+    }
+
+    /**
+     * This method takes a statement out of the cache, so that it is not handed to anyone else while in use
+     * @param key key of the statement
+     * @return an instance of {@link PreparedStatement} implementation, or null if the cache holds none
+     */
+    PreparedStatement take(M2CPStatementKey key) {
+        PreparedStatement statement = statements.remove(key);
+        if (statement == null) {
+            statistics.recordStatementCacheMiss();
+        } else {
+            statistics.recordStatementCacheHit();
+        }
+        return statement;
+    }
+
+    /**
+     * This method puts a statement released by the user app back into the cache as the most recently used one. If
+     * the cache already holds a statement with the same key, which happens when the user app has prepared the same
+     * statement twice at a time, the older one is closed. If the cache gets over its max size, the least recently
+     * used statement is closed
+     * @param key key of the statement
+     * @param statement an instance of {@link PreparedStatement} implementation ready to be reused
+     * @throws SQLException if {@link PreparedStatement#close()} method fails
+     */
+    void release(M2CPStatementKey key, PreparedStatement statement) throws SQLException {
+        PreparedStatement previous = statements.put(key, statement);
+        if (previous != null) {
+            previous.close();
+        }
+
+        if (statements.size() > maxSize) {
+            Iterator<Map.Entry<M2CPStatementKey, PreparedStatement>> eldest = statements.entrySet().iterator();
+            PreparedStatement evicted = eldest.next().getValue();
+            eldest.remove();
+            statistics.recordStatementCacheEviction();
+            evicted.close();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.m2cp.pool;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * Class that identifies a prepared statement in the statement cache of a connection wrapper. Two keys are equal if
+ * the statements have been prepared with the same SQL and the same options, i.e. result set type, concurrency and
+ * holdability, or the way generated keys are returned. Each constructor mirrors one of the prepareStatement methods
+ * of {@link Connection} interface, and the key knows how to prepare its statement on a real connection
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+final class M2CPStatementKey
+{
+    // Marker of an option that has not been specified
+    private static final int UNSPECIFIED = Integer.MIN_VALUE;
+
+    // Statement properties
+    private final String sql;
+    private final int resultSetType;
+    private final int resultSetConcurrency;
+    private final int resultSetHoldability;
+    private final int autoGeneratedKeys;
+    private final int[] columnIndexes;
+    private final String[] columnNames;
+
+    // Hash code, computed once as the key is looked up on each prepare
+    private final int hash;
+
+    /**
+     * Constructor for a key of a statement prepared with default options
+     * @param sql SQL statement
+     */
+    M2CPStatementKey(String sql) {
+        this(sql, UNSPECIFIED, UNSPECIFIED, UNSPECIFIED, UNSPECIFIED, null, null);
+    }
+
+    /**
+     * Constructor for a key of a statement prepared with the given result set type and concurrency
+     * @param sql SQL statement
+     * @param resultSetType result set type
+     * @param resultSetConcurrency result set concurrency
+     */
+    M2CPStatementKey(String sql, int resultSetType, int resultSetConcurrency) {
+        this(sql, resultSetType, resultSetConcurrency, UNSPECIFIED, UNSPECIFIED, null, null);
+    }
+
+    /**
+     * Constructor for a key of a statement prepared with the given result set type, concurrency and holdability
+     * @param sql SQL statement
+     * @param resultSetType result set type
+     * @param resultSetConcurrency result set concurrency
+     * @param resultSetHoldability result set holdability
+     */
+    M2CPStatementKey(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) {
+        this(sql, resultSetType, resultSetConcurrency, resultSetHoldability, UNSPECIFIED, null, null);
+    }
+
+    /**
+     * Constructor for a key of a statement prepared with the given flag for generated keys
+     * @param sql SQL statement
+     * @param autoGeneratedKeys flag indicating whether generated keys should be returned
+     */
+    M2CPStatementKey(String sql, int autoGeneratedKeys) {
+        this(sql, UNSPECIFIED, UNSPECIFIED, UNSPECIFIED, autoGeneratedKeys, null, null);
+    }
+
+    /**
+     * Constructor for a key of a statement prepared to return generated keys from the given columns
+     * @param sql SQL statement
+     * @param columnIndexes indexes of the columns to be returned
+     */
+    M2CPStatementKey(String sql, int[] columnIndexes) {
+        this(sql, UNSPECIFIED, UNSPECIFIED, UNSPECIFIED, UNSPECIFIED, columnIndexes.clone(), null);
+    }
+
+    /**
+     * Constructor for a key of a statement prepared to return generated keys from the given columns
+     * @param sql SQL statement
+     * @param columnNames names of the columns to be returned
+     */
+    M2CPStatementKey(String sql, String[] columnNames) {
+        this(sql, UNSPECIFIED, UNSPECIFIED, UNSPECIFIED, UNSPECIFIED, null, columnNames.clone());
+    }
+
+    /**
+     * Constructor that fills in all the properties. Arrays are expected to be copied by the caller, so that later
+     * changes to them do not affect the key
+     * @param sql SQL statement
+     * @param resultSetType result set type, or unspecified
+     * @param resultSetConcurrency result set concurrency, or unspecified
+     * @param resultSetHoldability result set holdability, or unspecified
+     * @param autoGeneratedKeys flag indicating whether generated keys should be returned, or unspecified
+     * @param columnIndexes indexes of the columns to be returned, or null
+     * @param columnNames names of the columns to be returned, or null
+     */
+    private M2CPStatementKey(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability,
+                             int autoGeneratedKeys, int[] columnIndexes, String[] columnNames) {
+        this.sql = sql;
+        this.resultSetType = resultSetType;
+        this.resultSetConcurrency = resultSetConcurrency;
+        this.resultSetHoldability = resultSetHoldability;
+        this.autoGeneratedKeys = autoGeneratedKeys;
+        this.columnIndexes = columnIndexes;
+        this.columnNames = columnNames;
+
+        int h = sql.hashCode();
+        h = 31 * h + resultSetType;
+        h = 31 * h + resultSetConcurrency;
+        h = 31 * h + resultSetHoldability;
+        h = 31 * h + autoGeneratedKeys;
+        h = 31 * h + Arrays.hashCode(columnIndexes);
+        h = 31 * h + Arrays.hashCode(columnNames);
+        this.hash = h;
+    }
+
+    /**
+     * This method prepares the statement identified by this key on a real connection, calling the prepareStatement
+     * method that matches the options of the key
+     * @param connection an instance of {@link Connection} implementation
+     * @return an instance of {@link PreparedStatement} implementation
+     * @throws SQLException if the driver fails to prepare the statement
+     */
+    PreparedStatement prepare(Connection connection) throws SQLException {
+        if (columnIndexes != null) {
+            return connection.prepareStatement(sql, columnIndexes);
+        }
+        if (columnNames != null) {
+            return connection.prepareStatement(sql, columnNames);
+        }
+        if (autoGeneratedKeys != UNSPECIFIED) {
+            return connection.prepareStatement(sql, autoGeneratedKeys);
+        }
+        if (resultSetHoldability != UNSPECIFIED) {
+            return connection.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+        }
+        if (resultSetType != UNSPECIFIED) {
+            return connection.prepareStatement(sql, resultSetType, resultSetConcurrency);
+        }
+        return connection.prepareStatement(sql);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof M2CPStatementKey)) {
+            return false;
+        }
+        M2CPStatementKey other = (M2CPStatementKey) o;
+        return hash == other.hash
+                && sql.equals(other.sql)
+                && resultSetType == other.resultSetType
+                && resultSetConcurrency == other.resultSetConcurrency
+                && resultSetHoldability == other.resultSetHoldability
+                && autoGeneratedKeys == other.autoGeneratedKeys
+                && Arrays.equals(columnIndexes, other.columnIndexes)
+                && Arrays.equals(columnNames, other.columnNames);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return sql;
+    }
+}
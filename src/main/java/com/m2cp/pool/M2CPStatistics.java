@@ -0,0 +1,263 @@
+package com.m2cp.pool;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class that collects statistics of a pool instance. Counters are striped, so that recording them on the hot path
+ * does not make borrowers contend with each other. Values are cumulative since the pool instance has been created
+ * and are read without any locking, so a set of values read at the same time is not necessarily consistent
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+public final class M2CPStatistics
+{
+    // Leases satisfied by the wrapper last returned by the same thread
+    private final LongAdder threadHintLeases = new LongAdder();
+
+    // Leases satisfied by scanning the list of wrappers
+    private final LongAdder scanLeases = new LongAdder();
+
+    // Leases satisfied by a wrapper handed over directly from a returning thread
+    private final LongAdder handoffLeases = new LongAdder();
+
+    // Leases reported as leaks
+    private final LongAdder leakedLeases = new LongAdder();
+
+    // Physical connections opened and closed, leases reclaimed after max lease time, and callers that gave up
+    // waiting for a connection
+    private final LongAdder createdConnections = new LongAdder();
+    private final LongAdder destroyedConnections = new LongAdder();
+    private final LongAdder reclaimedLeases = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    // Prepared statements found in the statement cache, prepared by the driver, and closed to make room
+    private final LongAdder statementCacheHits = new LongAdder();
+    private final LongAdder statementCacheMisses = new LongAdder();
+    private final LongAdder statementCacheEvictions = new LongAdder();
+
+    // Time callers wait for a connection, time connections are leased for, and time to open a physical connection
+    private final M2CPHistogram waitTimes = new M2CPHistogram();
+    private final M2CPHistogram holdTimes = new M2CPHistogram();
+    private final M2CPHistogram creationTimes = new M2CPHistogram();
+
+    /**
+     * Package-private constructor, as statistics are created only along with a pool instance
+     */
+    M2CPStatistics() {}
+
+    /**
+     * Gets number of leases satisfied by the wrapper last returned by the same thread
+     * @return number of leases
+     */
+    public long getThreadHintLeases() {
+        return threadHintLeases.sum();
+    }
+
+    /**
+     * Gets number of leases satisfied by scanning the list of wrappers for an idle one
+     * @return number of leases
+     */
+    public long getScanLeases() {
+        return scanLeases.sum();
+    }
+
+    /**
+     * Gets number of leases satisfied by a wrapper handed over directly to a waiting caller on return
+     * @return number of leases
+     */
+    public long getHandoffLeases() {
+        return handoffLeases.sum();
+    }
+
+    /**
+     * Gets number of leases that have lasted longer than the leak detection threshold
+     * @return number of leases
+     */
+    public long getLeakedLeases() {
+        return leakedLeases.sum();
+    }
+
+    /**
+     * Gets number of physical connections opened by the pool instance
+     * @return number of connections
+     */
+    public long getCreatedConnections() {
+        return createdConnections.sum();
+    }
+
+    /**
+     * Gets number of physical connections closed by the pool instance, for whatever reason
+     * @return number of connections
+     */
+    public long getDestroyedConnections() {
+        return destroyedConnections.sum();
+    }
+
+    /**
+     * Gets number of leases reclaimed from the user app after they have lasted longer than max lease time
+     * @return number of leases
+     */
+    public long getReclaimedLeases() {
+        return reclaimedLeases.sum();
+    }
+
+    /**
+     * Gets number of callers that got no connection within the connection timeout
+     * @return number of callers
+     */
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    /**
+     * Gets number of prepared statements taken from the statement cache instead of being prepared by the driver
+     * @return number of statements
+     */
+    public long getStatementCacheHits() {
+        return statementCacheHits.sum();
+    }
+
+    /**
+     * Gets number of prepared statements not found in the statement cache and prepared by the driver
+     * @return number of statements
+     */
+    public long getStatementCacheMisses() {
+        return statementCacheMisses.sum();
+    }
+
+    /**
+     * Gets number of prepared statements closed to keep the statement cache within its size
+     * @return number of statements
+     */
+    public long getStatementCacheEvictions() {
+        return statementCacheEvictions.sum();
+    }
+
+    /**
+     * Gets distribution of the time callers have spent in getConnection until they got a connection, including
+     * validation of the connection. Failed attempts are not included
+     * @return an instance of {@link M2CPHistogramSnapshot} class with times in nanoseconds
+     */
+    public M2CPHistogramSnapshot getWaitTimes() {
+        return waitTimes.snapshot();
+    }
+
+    /**
+     * Gets distribution of the time connections have been leased for, from leaving getConnection until being
+     * returned. Leases reclaimed by the cleaner are not included
+     * @return an instance of {@link M2CPHistogramSnapshot} class with times in nanoseconds
+     */
+    public M2CPHistogramSnapshot getHoldTimes() {
+        return holdTimes.snapshot();
+    }
+
+    /**
+     * Gets distribution of the time the driver has taken to open a physical connection. Failed attempts are not
+     * included
+     * @return an instance of {@link M2CPHistogramSnapshot} class with times in nanoseconds
+     */
+    public M2CPHistogramSnapshot getCreationTimes() {
+        return creationTimes.snapshot();
+    }
+
+    /**
+     * Records a lease satisfied by the thread hint
+     */
+    void recordThreadHintLease() {
+        threadHintLeases.increment();
+    }
+
+    /**
+     * Records a lease satisfied by scanning the list of wrappers
+     */
+    void recordScanLease() {
+        scanLeases.increment();
+    }
+
+    /**
+     * Records a lease satisfied by a direct hand-off
+     */
+    void recordHandoffLease() {
+        handoffLeases.increment();
+    }
+
+    /**
+     * Records a lease reported as a leak
+     */
+    void recordLeakedLease() {
+        leakedLeases.increment();
+    }
+
+    /**
+     * Records a physical connection opened
+     */
+    void recordCreatedConnection() {
+        createdConnections.increment();
+    }
+
+    /**
+     * Records a physical connection closed
+     */
+    void recordDestroyedConnection() {
+        destroyedConnections.increment();
+    }
+
+    /**
+     * Records a lease reclaimed after max lease time
+     */
+    void recordReclaimedLease() {
+        reclaimedLeases.increment();
+    }
+
+    /**
+     * Records a caller that got no connection in time
+     */
+    void recordTimeout() {
+        timeouts.increment();
+    }
+
+    /**
+     * Records a prepared statement taken from the statement cache
+     */
+    void recordStatementCacheHit() {
+        statementCacheHits.increment();
+    }
+
+    /**
+     * Records a prepared statement not found in the statement cache
+     */
+    void recordStatementCacheMiss() {
+        statementCacheMisses.increment();
+    }
+
+    /**
+     * Records a prepared statement evicted from the statement cache
+     */
+    void recordStatementCacheEviction() {
+        statementCacheEvictions.increment();
+    }
+
+    /**
+     * Records time a caller has waited for a connection
+     * @param nanos time in nanoseconds
+     */
+    void recordWaitTime(long nanos) {
+        waitTimes.record(nanos);
+    }
+
+    /**
+     * Records time a connection has been leased for
+     * @param nanos time in nanoseconds
+     */
+    void recordHoldTime(long nanos) {
+        holdTimes.record(nanos);
+    }
+
+    /**
+     * Records time taken to open a physical connection
+     * @param nanos time in nanoseconds
+     */
+    void recordCreationTime(long nanos) {
+        creationTimes.record(nanos);
+    }
+}
@@ -0,0 +1,34 @@
+package com.m2cp.pool;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread factory for the utility threads of the pool. All threads are daemon threads, so that the pool never keeps
+ * the user app from exiting, and are named after their purpose to make them easy to tell apart in thread dumps
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+final class M2CPThreadFactory implements ThreadFactory
+{
+    // Prefix of each thread name
+    private final String prefix;
+
+    // Sequence number of the next thread
+    private final AtomicInteger sequence = new AtomicInteger(1);
+
+    /**
+     * Constructor for a thread factory that names threads after the given purpose
+     * @param purpose short description of what the threads are doing
+     */
+    M2CPThreadFactory(String purpose) {
+        this.prefix = "m2cp-" + purpose + "-";
+    }
+
+    @Override
+    public Thread newThread(Runnable task) {
+        Thread thread = new Thread(task, prefix + sequence.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,69 @@
+package com.m2cp.pool;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Class that represents a thread parked in the pool while waiting for a wrapper to become available. Waiters are
+ * queued in arrival order, and a thread returning a wrapper hands it directly to the oldest waiter. The slot of the
+ * waiter is filled exactly once: either with the handed wrapper, or with a marker when the waiter gives up
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+final class M2CPWaiter
+{
+    // Marker put into the slot by a waiter that has given up
+    private static final Object CANCELLED = new Object();
+
+    // Thread to be unparked on hand-off
+    private final Thread thread;
+
+    // Wrapper handed to this waiter
+    private final AtomicReference<Object> slot = new AtomicReference<>();
+
+    /**
+     * Constructor for a waiter instance bound to the given thread
+     * @param thread the waiting thread
+     */
+    M2CPWaiter(Thread thread) {
+        this.thread = thread;
+    }
+
+    /**
+     * Hands a leased wrapper to this waiter and unparks the waiting thread. The hand-off fails if the waiter has
+     * already given up or has been served by another thread, in which case the caller still owns the wrapper
+     * @param wrapper an instance of {@link M2CPWrapper} class in the leased state
+     * @return true if the wrapper has been handed over; false otherwise
+     */
+    boolean offer(M2CPWrapper wrapper) {
+        if (slot.compareAndSet(null, wrapper)) {
+            LockSupport.unpark(thread);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Marks this waiter as given up, so that no wrapper can be handed to it afterwards
+     * @return true if the waiter has been cancelled; false if a wrapper has already been handed to it
+     */
+    boolean cancel() {
+        return slot.compareAndSet(null, CANCELLED);
+    }
+
+    /**
+     * Gets the wrapper handed to this waiter
+     * @return an instance of {@link M2CPWrapper} class, or null if nothing has been handed yet
+     */
+    M2CPWrapper getWrapper() {
+        Object handed = slot.get();
+        return handed == CANCELLED ? null : (M2CPWrapper) handed;
+    }
+
+    /**
+     * Unparks the waiting thread without handing anything, so that it re-checks the pool state
+     */
+    void wakeUp() {
+        LockSupport.unpark(thread);
+    }
+}
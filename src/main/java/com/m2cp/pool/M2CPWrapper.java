@@ -1,34 +1,145 @@
 package com.m2cp.pool;
 
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * The wrapper class for {@link Connection} implementation. All calls to a wrapped connection are substituted with
  * methods defined in this class. The connection object inside the wrapper is designed to be associated only with
  * that particular wrapper. Should the connection object be closed or invalidated, the connection gets closed and
- * its wrapper is destroyed
+ * its wrapper is destroyed. Session properties, e.g. auto-commit or transaction isolation, are cached by the wrapper:
+ * getters are answered from the cache, setters skip the driver when the value does not change, and only the
+ * properties changed by a borrower get reset on return. The cache relies on the session being changed through the
+ * wrapper only; it is dropped for the rest of the lease whenever the real connection, or a real statement or result
+ * set, is unwrapped. The connection reported by {@link DatabaseMetaData#getConnection()} is the real one as well,
+ * so a user app changing the session through it has to restore the session itself before the connection is returned
  * @author mikhailsaltyshev
  * @version 1.0.2
  */
 public final class M2CPWrapper implements Connection
 {
+    // Wrapper states, switched only by compare-and-set operations
+    static final int STATE_IDLE = 0;
+    static final int STATE_LEASED = 1;
+    static final int STATE_RESERVED = 2;
+    static final int STATE_REMOVED = -1;
+
+    // Stamp of a lease reclaimed by the lease timer
+    private static final long LEASE_RECLAIMED = -1;
+
     // An actual instance of java.sql.Connection implementation
     private final Connection realConnection;
 
+    // Pool instance this wrapper belongs to
+    private final M2CP pool;
+
+    // Counter of the leased wrappers of the pool, updated on each switch to and from the leased state
+    private final LongAdder leasedWrappers;
+
+    // Session properties tracked by the wrapper, one bit each
+    private static final int AUTO_COMMIT = 1;
+    private static final int READ_ONLY = 1 << 1;
+    private static final int TRANSACTION_ISOLATION = 1 << 2;
+    private static final int CATALOG = 1 << 3;
+    private static final int SCHEMA = 1 << 4;
+    private static final int NETWORK_TIMEOUT = 1 << 5;
+    private static final int TYPE_MAP = 1 << 6;
+    private static final int ALL_PROPERTIES = (TYPE_MAP << 1) - 1;
+
+    // Time in milliseconds after which the wrapper gets replaced, zero if it never expires
+    private final long expiryTime;
+
+    // Cache of prepared statements, or null if statements are not cached
+    private final M2CPStatementCache statementCache;
+
+    // Statements created by the current borrower and not closed yet, accessed only by the thread owning the wrapper
+    private final List<M2CPStatement> openStatements = new ArrayList<>();
+
     // Wrapper properties
-    private boolean leased = false;
-    private long lastTimeLeased = 0;
-    private long lastTimeReturned = 0;
+    private final AtomicInteger state = new AtomicInteger(STATE_IDLE);
+    private final AtomicLong lastTimeLeased = new AtomicLong();
+    private volatile long lastTimeReturned = 0;
+    private volatile long lastTimeValidated = 0;
+
+    // Stack trace captured when the wrapper was leased, if the lease has been sampled for leak detection, and the
+    // start time of the last lease reported as a leak
+    private volatile Throwable leaseTrace = null;
+    private volatile long leakReported = 0;
+
+    // Precise start time of the current lease for the hold time histogram, accessed only by the owning thread
+    private long leaseStartNanos = 0;
+
+    // Session properties whose current value is cached, whose default value has been captured, and those changed
+    // by the current borrower. Like the values below, they are accessed only by the thread owning the wrapper, and
+    // are published to the next owner along with the wrapper state
+    private int knownProperties = 0;
+    private int capturedProperties = 0;
+    private int dirtyProperties = 0;
+
+    // Set once the real connection has been exposed to the current borrower, who may change the session through it
+    // until the connection is returned
+    private boolean sessionExposed = false;
+
+    // Default values of the session properties, captured from the driver when the connection is opened
+    private boolean defaultAutoCommit;
+    private boolean defaultReadOnly;
+    private int defaultTransactionIsolation;
+    private String defaultCatalog;
+    private String defaultSchema;
+    private int defaultNetworkTimeout;
+    private Map<String, Class<?>> defaultTypeMap;
+
+    // Current values of the session properties, valid only if they are known
+    private boolean autoCommit;
+    private boolean readOnly;
+    private int transactionIsolation;
+    private String catalog;
+    private String schema;
+    private int networkTimeout;
+    private Map<String, Class<?>> typeMap;
+    private Executor networkTimeoutExecutor;
 
     /**
      * Constructor for a wrapper instance that substitutes actual {@link Connection} implementation instance
      * @param realConnection an instance of {@link Connection} implementation
+     * @param pool the pool instance this wrapper belongs to
+     * @param expiryTime time in milliseconds after which the wrapper gets replaced, zero if it never expires
+     * @param statementCacheSize max number of idle prepared statements cached, zero to disable the cache
      */
-    M2CPWrapper(Connection realConnection) {
+    M2CPWrapper(Connection realConnection, M2CP pool, long expiryTime, int statementCacheSize) {
         this.realConnection = realConnection;
+        this.pool = pool;
+        this.leasedWrappers = pool.getLeasedWrappers();
+        this.expiryTime = expiryTime;
+        this.statementCache = statementCacheSize > 0
+                ? new M2CPStatementCache(statementCacheSize, pool.getStatistics()) : null;
+
+        // A fresh wrapper counts as idle since its creation
+        this.lastTimeReturned = System.currentTimeMillis();
+        captureSessionDefaults();
+    }
+
+    /**
+     * This method captures the defaults of all session properties once per connection, while the wrapper is being
+     * created on a connector thread, so that no borrower pays for it. A property the driver fails to report is
+     * captured later on, when it is first accessed through the wrapper
+     */
+    private void captureSessionDefaults() {
+        for (int property = AUTO_COMMIT; property <= TYPE_MAP; property <<= 1) {
+            try {
+                loadProperty(property);
+            } catch (SQLException e) {
+                // Left uncaptured, so the property is never reset until it gets reported
+            }
+        }
     }
 
     /**
@@ -36,15 +147,96 @@ public final class M2CPWrapper implements Connection
      * @return true if the wrapper is currently leased; false otherwise
      */
     public boolean isLeased() {
-        return leased;
+        return state.get() == STATE_LEASED;
+    }
+
+    /**
+     * Checks if the wrapper has been removed from its pool, either reclaimed by the cleaner or retired on shutdown
+     * @return true if the wrapper has been removed; false otherwise
+     */
+    boolean isRemoved() {
+        return state.get() == STATE_REMOVED;
+    }
+
+    /**
+     * Checks if the wrapper has outlived its max lifetime and must be replaced once it is not leased
+     * @param now current time in milliseconds
+     * @return true if the wrapper has expired; false otherwise
+     */
+    boolean isExpired(long now) {
+        return expiryTime != 0 && now >= expiryTime;
+    }
+
+    /**
+     * Atomically switches an idle wrapper to the leased state. Only one of the threads competing for the same
+     * wrapper succeeds, so no external lock is required
+     * @return true if the wrapper has been leased by the calling thread; false if it is not idle
+     */
+    boolean tryLease() {
+        if (state.compareAndSet(STATE_IDLE, STATE_LEASED)) {
+            leasedWrappers.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Atomically switches a leased wrapper back to the idle state
+     * @return true if the wrapper has been released; false if it was not leased
+     */
+    boolean tryRelease() {
+        if (state.compareAndSet(STATE_LEASED, STATE_IDLE)) {
+            leasedWrappers.decrement();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Atomically switches a leased wrapper to the removed state, so that a late return from the user app is ignored
+     * @return true if the wrapper has been reclaimed by the calling thread; false if it was not leased
+     */
+    boolean tryReclaim() {
+        if (state.compareAndSet(STATE_LEASED, STATE_REMOVED)) {
+            leasedWrappers.decrement();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Atomically switches an idle wrapper to the removed state, so that it can't be leased anymore
+     * @return true if the wrapper has been retired by the calling thread; false if it was not idle
+     */
+    boolean tryRetire() {
+        return state.compareAndSet(STATE_IDLE, STATE_REMOVED);
+    }
+
+    /**
+     * Atomically switches an idle wrapper to the reserved state, so that the pool can perform maintenance on it
+     * without any borrower leasing it in the meantime
+     * @return true if the wrapper has been reserved by the calling thread; false if it was not idle
+     */
+    boolean tryReserve() {
+        return state.compareAndSet(STATE_IDLE, STATE_RESERVED);
+    }
+
+    /**
+     * Atomically switches a reserved wrapper back to the idle state
+     * @return true if the wrapper has been released; false if it was not reserved
+     */
+    boolean tryUnreserve() {
+        return state.compareAndSet(STATE_RESERVED, STATE_IDLE);
     }
 
     /**
-     * Gets lease status of the wrapper
-     * @param used true if the wrapper is currently leased; false otherwise
+     * Unconditionally switches the wrapper to the removed state. Meant to be called by the thread that already
+     * owns the wrapper, e.g. when a leased wrapper turns out to hold a broken connection
      */
-    void setLeased(boolean used) {
-        this.leased = used;
+    void markRemoved() {
+        if (state.getAndSet(STATE_REMOVED) == STATE_LEASED) {
+            leasedWrappers.decrement();
+        }
     }
 
     /**
@@ -52,15 +244,100 @@ public final class M2CPWrapper implements Connection
      * @return time in milliseconds
      */
     long getLastTimeLeased() {
-        return lastTimeLeased;
+        return lastTimeLeased.get();
     }
 
     /**
-     * Sets the last time this wrapper was leased
+     * Sets the last time this wrapper was leased. Zero indicates that no lease is currently in progress, e.g. while
+     * the wrapper is being passed between the pool and the user app, which keeps the lease timer off the wrapper
      * @param lastTimeLeased time in milliseconds
      */
     void setLastTimeLeased(long lastTimeLeased) {
-        this.lastTimeLeased = lastTimeLeased;
+        this.lastTimeLeased.set(lastTimeLeased);
+    }
+
+    /**
+     * Atomically ends the lease started at the given time by clearing its stamp. The user app returning the wrapper
+     * has to end the lease this way, so that it never passes the wrapper on after the lease timer has reclaimed it
+     * @param leased time in milliseconds the lease has started
+     * @return true if the lease has been ended by the calling thread; false if it has already been ended
+     */
+    boolean tryEndLease(long leased) {
+        return leased > 0 && lastTimeLeased.compareAndSet(leased, 0);
+    }
+
+    /**
+     * Atomically reclaims the wrapper leased at the given time by marking its stamp and switching it to the removed
+     * state. The stamp is claimed first, so the reclaim fails if the lease has been ended by a return, or replaced
+     * by a new lease in the meantime
+     * @param leased time in milliseconds the lease has started
+     * @return true if the wrapper has been reclaimed by the calling thread; false otherwise
+     */
+    boolean tryReclaim(long leased) {
+        if (leased > 0 && lastTimeLeased.compareAndSet(leased, LEASE_RECLAIMED)) {
+            markRemoved();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks if the lease of the wrapper has been reclaimed by the lease timer, which may still be switching the
+     * wrapper to the removed state
+     * @return true if the lease has been reclaimed; false otherwise
+     */
+    boolean isReclaimed() {
+        return lastTimeLeased.get() == LEASE_RECLAIMED;
+    }
+
+    /**
+     * Gets the precise start time of the current lease
+     * @return time in nanoseconds, as given by {@link System#nanoTime()}
+     */
+    long getLeaseStartNanos() {
+        return leaseStartNanos;
+    }
+
+    /**
+     * Sets the precise start time of the current lease
+     * @param leaseStartNanos time in nanoseconds, as given by {@link System#nanoTime()}
+     */
+    void setLeaseStartNanos(long leaseStartNanos) {
+        this.leaseStartNanos = leaseStartNanos;
+    }
+
+    /**
+     * Gets the stack trace captured when this wrapper was leased
+     * @return an instance of {@link Throwable} class, or null if the lease has not been sampled
+     */
+    Throwable getLeaseTrace() {
+        return leaseTrace;
+    }
+
+    /**
+     * Sets the stack trace captured when this wrapper was leased. It must be set before the lease is stamped, so
+     * that the lease timer sees the trace of the current lease
+     * @param leaseTrace an instance of {@link Throwable} class, or null if the lease has not been sampled
+     */
+    void setLeaseTrace(Throwable leaseTrace) {
+        this.leaseTrace = leaseTrace;
+    }
+
+    /**
+     * Checks if the given lease of this wrapper has already been reported as a leak
+     * @param leased time in milliseconds the lease has started
+     * @return true if the lease has been reported; false otherwise
+     */
+    boolean isLeakReported(long leased) {
+        return leakReported == leased;
+    }
+
+    /**
+     * Marks the given lease of this wrapper as reported as a leak, so that it is reported only once
+     * @param leased time in milliseconds the lease has started
+     */
+    void setLeakReported(long leased) {
+        this.leakReported = leased;
     }
 
     /**
@@ -79,6 +356,239 @@ public final class M2CPWrapper implements Connection
         this.lastTimeReturned = lastTimeReturned;
     }
 
+    /**
+     * Gets the last time the connection of this wrapper was validated by the pool
+     * @return time in milliseconds, or zero if it has never been validated
+     */
+    long getLastTimeValidated() {
+        return lastTimeValidated;
+    }
+
+    /**
+     * Sets the last time the connection of this wrapper was validated by the pool
+     * @param lastTimeValidated time in milliseconds
+     */
+    void setLastTimeValidated(long lastTimeValidated) {
+        this.lastTimeValidated = lastTimeValidated;
+    }
+
+    /**
+     * This method checks that the connection inside this wrapper is still alive, either by running the given test
+     * query, or by calling the {@link Connection#isValid(int)} method of the driver if there is no test query
+     * @param timeout max time to wait in seconds, zero for no limit
+     * @param testQuery SQL query, or null to let the driver validate the connection
+     * @return true if the connection is alive; false otherwise
+     */
+    boolean validateRealConnection(int timeout, String testQuery) {
+        try {
+            if (testQuery == null) {
+                return realConnection.isValid(timeout);
+            }
+            try (Statement statement = realConnection.createStatement()) {
+                statement.setQueryTimeout(timeout);
+                statement.execute(testQuery);
+                return true;
+            }
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * This method loads the current value of a session property from the driver into the cache, unless it is
+     * already known. A property that has not been changed since the connection was opened still holds its default
+     * value, which gets captured along the way, so that the property can be reset once a borrower changes it. As
+     * the cache is kept up to date by the setters and survives the reset on return, each property is normally
+     * loaded once per connection. While the real connection is exposed, the value is not cached, as the borrower
+     * may change it behind the back of the wrapper at any time
+     * @param property bit of the session property
+     * @throws SQLException if the driver fails to get the property
+     */
+    private void loadProperty(int property) throws SQLException {
+        if ((knownProperties & property) != 0) {
+            return;
+        }
+        switch (property) {
+            case AUTO_COMMIT:
+                autoCommit = realConnection.getAutoCommit();
+                break;
+            case READ_ONLY:
+                readOnly = realConnection.isReadOnly();
+                break;
+            case TRANSACTION_ISOLATION:
+                transactionIsolation = realConnection.getTransactionIsolation();
+                break;
+            case CATALOG:
+                catalog = realConnection.getCatalog();
+                break;
+            case SCHEMA:
+                schema = realConnection.getSchema();
+                break;
+            case NETWORK_TIMEOUT:
+                networkTimeout = realConnection.getNetworkTimeout();
+                break;
+            case TYPE_MAP:
+                typeMap = realConnection.getTypeMap();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown session property: " + property);
+        }
+        if (!sessionExposed) {
+            knownProperties |= property;
+        }
+
+        if (((capturedProperties | dirtyProperties) & property) == 0) {
+            captureDefault(property);
+        }
+    }
+
+    /**
+     * This method captures the cached value of a session property as its default
+     * @param property bit of the session property
+     */
+    private void captureDefault(int property) {
+        switch (property) {
+            case AUTO_COMMIT:
+                defaultAutoCommit = autoCommit;
+                break;
+            case READ_ONLY:
+                defaultReadOnly = readOnly;
+                break;
+            case TRANSACTION_ISOLATION:
+                defaultTransactionIsolation = transactionIsolation;
+                break;
+            case CATALOG:
+                defaultCatalog = catalog;
+                break;
+            case SCHEMA:
+                defaultSchema = schema;
+                break;
+            case NETWORK_TIMEOUT:
+                defaultNetworkTimeout = networkTimeout;
+                break;
+            case TYPE_MAP:
+                defaultTypeMap = typeMap;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown session property: " + property);
+        }
+        capturedProperties |= property;
+    }
+
+    /**
+     * Checks if a session property is cached with the given value, in which case setting it again is a no-op
+     * @param property bit of the session property
+     * @param unchanged true if the cached value equals the value to be set
+     * @return true if the driver call can be skipped; false otherwise
+     */
+    private boolean isKnownAs(int property, boolean unchanged) {
+        return (knownProperties & property) != 0 && unchanged;
+    }
+
+    /**
+     * This method gives up the cached session state once an object that reaches the real connection, i.e. the real
+     * connection itself or a real statement or result set, gets exposed to the user app, which may change the
+     * session behind the back of the wrapper. Other unwrapped objects, e.g. vendor extensions unrelated to the
+     * session, leave the cache intact. All properties are marked as changed with an unknown value, without any call
+     * to the driver, so that they are read back on return and get reset only if they differ from their defaults.
+     * This happens once per lease, however often the borrower unwraps
+     * @param unwrapped object unwrapped by the user app
+     */
+    void invalidateSessionState(Object unwrapped) {
+        boolean reachesSession = unwrapped instanceof Connection || unwrapped instanceof Statement
+                || unwrapped instanceof ResultSet;
+        if (sessionExposed || !reachesSession) {
+            return;
+        }
+        sessionExposed = true;
+        dirtyProperties = ALL_PROPERTIES;
+        knownProperties = 0;
+    }
+
+    /**
+     * This method restores the session properties changed by the borrower to their defaults, so that the next
+     * borrower gets the connection in the same state as a fresh one. Properties that have not been changed, or
+     * have been set back to their defaults by the borrower, cost no call to the driver at all. Properties whose
+     * value has become unknown, as the real connection has been exposed, are read back from the driver first, and
+     * are reset only if they differ from their defaults. The network timeout can only be reset with the executor it
+     * has been set with through the wrapper, so without one it is left as it is and read back on next access.
+     * Afterwards the cache holds the defaults, so the next borrower reads them without any call to the driver
+     * @throws SQLException if the driver fails to reset a property
+     */
+    void resetSessionState() throws SQLException {
+        sessionExposed = false;
+        int dirty = dirtyProperties;
+        if (dirty == 0) {
+            return;
+        }
+        // Nothing is left dirty even if a reset fails, as the pool discards the wrapper in that case
+        dirtyProperties = 0;
+
+        // Only captured defaults can be restored. A property with unknown value is read back, as getters are far
+        // cheaper than setters with most drivers, and one the driver fails to report is restored unconditionally
+        int reset = dirty & capturedProperties;
+        for (int property = AUTO_COMMIT; property < TYPE_MAP; property <<= 1) {
+            if ((reset & ~knownProperties & property) != 0) {
+                try {
+                    loadProperty(property);
+                } catch (SQLException e) {
+                    // Left unknown, so the property gets restored unconditionally
+                }
+            }
+        }
+        int unknown = ~knownProperties;
+        int skipped = 0;
+
+        if ((reset & AUTO_COMMIT) != 0) {
+            if ((unknown & AUTO_COMMIT) != 0 || autoCommit != defaultAutoCommit) {
+                realConnection.setAutoCommit(defaultAutoCommit);
+            }
+            autoCommit = defaultAutoCommit;
+        }
+        if ((reset & READ_ONLY) != 0) {
+            if ((unknown & READ_ONLY) != 0 || readOnly != defaultReadOnly) {
+                realConnection.setReadOnly(defaultReadOnly);
+            }
+            readOnly = defaultReadOnly;
+        }
+        if ((reset & TRANSACTION_ISOLATION) != 0) {
+            if ((unknown & TRANSACTION_ISOLATION) != 0 || transactionIsolation != defaultTransactionIsolation) {
+                realConnection.setTransactionIsolation(defaultTransactionIsolation);
+            }
+            transactionIsolation = defaultTransactionIsolation;
+        }
+        if ((reset & CATALOG) != 0) {
+            if ((unknown & CATALOG) != 0 || !Objects.equals(catalog, defaultCatalog)) {
+                realConnection.setCatalog(defaultCatalog);
+            }
+            catalog = defaultCatalog;
+        }
+        if ((reset & SCHEMA) != 0) {
+            if ((unknown & SCHEMA) != 0 || !Objects.equals(schema, defaultSchema)) {
+                realConnection.setSchema(defaultSchema);
+            }
+            schema = defaultSchema;
+        }
+        if ((reset & NETWORK_TIMEOUT) != 0) {
+            if ((unknown & NETWORK_TIMEOUT) != 0 || networkTimeout != defaultNetworkTimeout) {
+                if (networkTimeoutExecutor != null) {
+                    realConnection.setNetworkTimeout(networkTimeoutExecutor, defaultNetworkTimeout);
+                } else {
+                    skipped = NETWORK_TIMEOUT;
+                }
+            }
+            networkTimeout = defaultNetworkTimeout;
+        }
+        if ((reset & TYPE_MAP) != 0) {
+            // The map itself may have been modified in place, so it is restored unconditionally
+            realConnection.setTypeMap(defaultTypeMap);
+            typeMap = defaultTypeMap;
+        }
+
+        // A changed property without a default gets reloaded, and its value is taken as the default from now on
+        knownProperties = (knownProperties | reset) & ~(dirty & ~capturedProperties) & ~skipped;
+    }
+
     /**
      * This method is a wrapper for the actual {@link Connection#close()} method that is called when the associated
      * connection inside the wrapper object must be closed.
@@ -88,36 +598,106 @@ public final class M2CPWrapper implements Connection
         realConnection.close();
     }
 
+    /**
+     * This method prepares a statement identified by its key. If the statement cache is enabled, a cached real
+     * statement is reused if there is one, and the real statement gets wrapped, so that closing it puts it back
+     * into the cache
+     * @param key key of the statement
+     * @return an instance of {@link PreparedStatement} implementation
+     * @throws SQLException if the driver fails to prepare the statement
+     */
+    private PreparedStatement prepareStatement(M2CPStatementKey key) throws SQLException {
+        if (statementCache == null) {
+            return track(new M2CPPreparedStatement(key.prepare(realConnection), this, null, null));
+        }
+        PreparedStatement statement = statementCache.take(key);
+        if (statement == null) {
+            statement = key.prepare(realConnection);
+        }
+        return track(new M2CPPreparedStatement(statement, this, statementCache, key));
+    }
+
+    /**
+     * This method keeps track of a statement created by the borrower, so that it gets closed on return even if the
+     * borrower forgets to close it
+     * @param statement an instance of {@link M2CPStatement} class
+     * @return the same statement
+     */
+    private <S extends M2CPStatement> S track(S statement) {
+        openStatements.add(statement);
+        return statement;
+    }
+
+    /**
+     * This method stops tracking a statement that has been closed. Statements are usually closed in reverse order
+     * of creation, so the search starts from the most recent one
+     * @param statement an instance of {@link M2CPStatement} class
+     */
+    void forgetStatement(M2CPStatement statement) {
+        for (int i = openStatements.size() - 1; i >= 0; i--) {
+            if (openStatements.get(i) == statement) {
+                openStatements.remove(i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * This method closes the statements the borrower has left open, along with their result sets, so that server
+     * side cursors and memory are not carried over to the next borrower. Cached prepared statements go back into
+     * the statement cache. All statements get closed even if some of them fail
+     * @throws SQLException if any of the statements fails to be closed
+     */
+    void closeStatements() throws SQLException {
+        if (openStatements.isEmpty()) {
+            return;
+        }
+        M2CPStatement[] statements = openStatements.toArray(new M2CPStatement[0]);
+        openStatements.clear();
+
+        SQLException failure = null;
+        for (M2CPStatement statement : statements) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
     /**
      * This method redirects the call to the {@link M2CP#returnConnection(M2CPWrapper)}, which returns the wrapper
-     * back to the pool. A check is performed whether the pool instance is not null to prevent situations when the
-     * user app tries to return a wrapper to the non-existing pool
+     * back to the pool instance it was leased from. The pool itself decides what to do with a wrapper that has
+     * already been reclaimed or belongs to a pool instance that has been shut down
      * @throws SQLException if {@link M2CP#returnConnection(M2CPWrapper)} method fails
      */
     @Override
     public void close() throws SQLException {
-        synchronized (M2CPMonitor.KEY) {
-            if (M2CP.pool != null) {
-                M2CP.pool.returnConnection(this);
-            }
-        }
+        pool.returnConnection(this);
     }
 
     // Following are the original methods from java.sql.Connection interface
 
     @Override
     public Statement createStatement() throws SQLException {
-        return realConnection.createStatement();
+        return track(new M2CPStatement(realConnection.createStatement(), this));
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql) throws SQLException {
-        return realConnection.prepareStatement(sql);
+        return prepareStatement(new M2CPStatementKey(sql));
     }
 
     @Override
     public CallableStatement prepareCall(String sql) throws SQLException {
-        return realConnection.prepareCall(sql);
+        return track(new M2CPCallableStatement(realConnection.prepareCall(sql), this));
     }
 
     @Override
@@ -127,12 +707,19 @@ public final class M2CPWrapper implements Connection
 
     @Override
     public void setAutoCommit(boolean autoCommit) throws SQLException {
+        if (isKnownAs(AUTO_COMMIT, this.autoCommit == autoCommit)) {
+            return;
+        }
+        loadProperty(AUTO_COMMIT);
         realConnection.setAutoCommit(autoCommit);
+        this.autoCommit = autoCommit;
+        dirtyProperties |= AUTO_COMMIT;
     }
 
     @Override
     public boolean getAutoCommit() throws SQLException {
-        return realConnection.getAutoCommit();
+        loadProperty(AUTO_COMMIT);
+        return autoCommit;
     }
 
     @Override
@@ -157,32 +744,53 @@ public final class M2CPWrapper implements Connection
 
     @Override
     public void setReadOnly(boolean readOnly) throws SQLException {
+        if (isKnownAs(READ_ONLY, this.readOnly == readOnly)) {
+            return;
+        }
+        loadProperty(READ_ONLY);
         realConnection.setReadOnly(readOnly);
+        this.readOnly = readOnly;
+        dirtyProperties |= READ_ONLY;
     }
 
     @Override
     public boolean isReadOnly() throws SQLException {
-        return realConnection.isReadOnly();
+        loadProperty(READ_ONLY);
+        return readOnly;
     }
 
     @Override
     public void setCatalog(String catalog) throws SQLException {
+        if (isKnownAs(CATALOG, Objects.equals(this.catalog, catalog))) {
+            return;
+        }
+        loadProperty(CATALOG);
         realConnection.setCatalog(catalog);
+        this.catalog = catalog;
+        dirtyProperties |= CATALOG;
     }
 
     @Override
     public String getCatalog() throws SQLException {
-        return realConnection.getCatalog();
+        loadProperty(CATALOG);
+        return catalog;
     }
 
     @Override
     public void setTransactionIsolation(int level) throws SQLException {
+        if (isKnownAs(TRANSACTION_ISOLATION, transactionIsolation == level)) {
+            return;
+        }
+        loadProperty(TRANSACTION_ISOLATION);
         realConnection.setTransactionIsolation(level);
+        this.transactionIsolation = level;
+        dirtyProperties |= TRANSACTION_ISOLATION;
     }
 
     @Override
     public int getTransactionIsolation() throws SQLException {
-        return realConnection.getTransactionIsolation();
+        loadProperty(TRANSACTION_ISOLATION);
+        return transactionIsolation;
     }
 
     @Override
@@ -197,17 +805,17 @@ public final class M2CPWrapper implements Connection
 
     @Override
     public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
-        return realConnection.createStatement(resultSetType, resultSetConcurrency);
+        return track(new M2CPStatement(realConnection.createStatement(resultSetType, resultSetConcurrency), this));
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
-        return realConnection.prepareStatement(sql, resultSetType,resultSetConcurrency);
+        return prepareStatement(new M2CPStatementKey(sql, resultSetType, resultSetConcurrency));
     }
 
     @Override
     public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
-        return realConnection.prepareCall(sql, resultSetType, resultSetConcurrency);
+        return track(new M2CPCallableStatement(realConnection.prepareCall(sql, resultSetType, resultSetConcurrency), this));
     }
 
     @Override
@@ -217,7 +825,10 @@ public final class M2CPWrapper implements Connection
 
     @Override
     public void setTypeMap(Map<String, Class<?>> map) throws SQLException {
+        loadProperty(TYPE_MAP);
         realConnection.setTypeMap(map);
+        this.typeMap = map;
+        dirtyProperties |= TYPE_MAP;
     }
 
     @Override
@@ -252,32 +863,32 @@ public final class M2CPWrapper implements Connection
 
     @Override
     public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
-        return realConnection.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability);
+        return track(new M2CPStatement(realConnection.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability), this));
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
-        return realConnection.prepareStatement(sql, resultSetType, resultSetConcurrency);
+        return prepareStatement(new M2CPStatementKey(sql, resultSetType, resultSetConcurrency, resultSetHoldability));
     }
 
     @Override
     public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
-        return realConnection.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+        return track(new M2CPCallableStatement(realConnection.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability), this));
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
-        return realConnection.prepareStatement(sql, autoGeneratedKeys);
+        return prepareStatement(new M2CPStatementKey(sql, autoGeneratedKeys));
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
-        return realConnection.prepareStatement(sql, columnIndexes);
+        return prepareStatement(new M2CPStatementKey(sql, columnIndexes));
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
-        return realConnection.prepareStatement(sql, columnNames);
+        return prepareStatement(new M2CPStatementKey(sql, columnNames));
     }
 
     @Override
@@ -337,12 +948,19 @@ public final class M2CPWrapper implements Connection
 
     @Override
     public void setSchema(String schema) throws SQLException {
+        if (isKnownAs(SCHEMA, Objects.equals(this.schema, schema))) {
+            return;
+        }
+        loadProperty(SCHEMA);
         realConnection.setSchema(schema);
+        this.schema = schema;
+        dirtyProperties |= SCHEMA;
     }
 
     @Override
     public String getSchema() throws SQLException {
-        return realConnection.getSchema();
+        loadProperty(SCHEMA);
+        return schema;
     }
 
     @Override
@@ -352,17 +970,25 @@ public final class M2CPWrapper implements Connection
 
     @Override
     public void setNetworkTimeout(Executor executor, int milliseconds) throws SQLException {
+        loadProperty(NETWORK_TIMEOUT);
         realConnection.setNetworkTimeout(executor, milliseconds);
+        this.networkTimeout = milliseconds;
+        this.networkTimeoutExecutor = executor;
+        dirtyProperties |= NETWORK_TIMEOUT;
     }
 
     @Override
     public int getNetworkTimeout() throws SQLException {
-        return realConnection.getNetworkTimeout();
+        loadProperty(NETWORK_TIMEOUT);
+        return networkTimeout;
     }
 
     @Override
     public <T> T unwrap(Class<T> iface) throws SQLException {
-        return realConnection.unwrap(iface);
+        // The session may be changed through the unwrapped connection, so the cached state can't be trusted anymore
+        T unwrapped = realConnection.unwrap(iface);
+        invalidateSessionState(unwrapped);
+        return unwrapped;
     }
 
     @Override
@@ -0,0 +1,82 @@
+package com.m2cp.pool;
+
+import com.m2cp.pool.stub.M2CPStubDatabase;
+import com.m2cp.pool.stub.M2CPStubDriver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of the data source backed by a pool instance, including pool instances for other credentials
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+class M2CPDataSourceTest
+{
+    // Data source under test
+    private M2CPDataSource dataSource;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        dataSource.close();
+    }
+
+    /**
+     * Connections are leased from the same pool instance until it gets shut down, after which the data source
+     * switches to a fresh instance
+     */
+    @Test
+    void shutDownPoolIsReplaced() throws Exception {
+        dataSource = createDataSource("data-source-replaced");
+        M2CP pool = dataSource.getPool();
+        try (Connection connection = dataSource.getConnection()) {
+            assertTrue(connection.isValid(1));
+        }
+        assertSame(pool, dataSource.getPool());
+
+        pool.shutdown();
+        try (Connection connection = dataSource.getConnection()) {
+            assertTrue(connection.isValid(1));
+        }
+        assertNotSame(pool, dataSource.getPool());
+    }
+
+    /**
+     * Closing the data source shuts down the pool instances created for other credentials too, so that none of
+     * their connections are left open
+     */
+    @Test
+    void closeShutsDownPoolsOfOtherCredentials() throws Exception {
+        M2CPStubDatabase database = M2CPStubDriver.getDatabase("data-source-credentials");
+        dataSource = createDataSource(database.getName());
+        try (Connection connection = dataSource.getConnection()) {
+            assertTrue(connection.isValid(1));
+        }
+        for (int i = 0; i < 3; i++) {
+            try (Connection connection = dataSource.getConnection("other", "secret")) {
+                assertTrue(connection.isValid(1));
+            }
+        }
+        // One pool instance for the credentials of the data source and one for the other credentials
+        assertEquals(4, database.getOpenConnections());
+
+        dataSource.close();
+        assertTrue(M2CPTestPools.await(() -> database.getOpenConnections() == 0, 5000));
+    }
+
+    /**
+     * Creates a data source of two connections on the given stub database
+     * @param database name of the stub database
+     * @return data source instance
+     */
+    private static M2CPDataSource createDataSource(String database) {
+        return new M2CPDataSource(M2CPStubDriver.url(database), M2CP.credentials("user", "password"),
+                M2CPTestPools.config(2));
+    }
+}
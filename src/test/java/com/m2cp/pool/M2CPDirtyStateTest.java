@@ -0,0 +1,98 @@
+package com.m2cp.pool;
+
+import com.m2cp.pool.stub.M2CPStubDatabase;
+import com.m2cp.pool.stub.M2CPStubDriver;
+import com.m2cp.pool.stub.M2CPStubOperation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of resetting on return only the session properties a borrower has changed through the wrapper
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+class M2CPDirtyStateTest
+{
+    // Pool instance under test
+    private M2CP pool;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        pool.shutdown();
+    }
+
+    /**
+     * Borrowers reading the session without changing it cost no reset on return
+     */
+    @Test
+    void unchangedSessionIsNotReset() throws Exception {
+        M2CPStubDatabase database = createPool("dirty-state-unchanged");
+        for (int i = 0; i < 10; i++) {
+            try (Connection connection = pool.getConnection()) {
+                assertTrue(connection.getAutoCommit());
+                assertEquals("public", connection.getSchema());
+            }
+        }
+        assertEquals(0, database.getCalls(M2CPStubOperation.SET_AUTO_COMMIT));
+    }
+
+    /**
+     * Setting a property to the value the wrapper already knows it holds is skipped, and costs no reset on return
+     * either
+     */
+    @Test
+    void unchangedValueIsNotSet() throws Exception {
+        M2CPStubDatabase database = createPool("dirty-state-same-value");
+        try (Connection connection = pool.getConnection()) {
+            assertTrue(connection.getAutoCommit());
+            connection.setAutoCommit(true);
+        }
+        assertEquals(0, database.getCalls(M2CPStubOperation.SET_AUTO_COMMIT));
+    }
+
+    /**
+     * A changed property is reset on return, so the next borrower gets the default
+     */
+    @Test
+    void changedSessionIsReset() throws Exception {
+        M2CPStubDatabase database = createPool("dirty-state-changed");
+        try (Connection connection = pool.getConnection()) {
+            connection.setAutoCommit(false);
+            connection.setSchema("other");
+        }
+        // One call by the user app, and one by the reset on return
+        assertEquals(2, database.getCalls(M2CPStubOperation.SET_AUTO_COMMIT));
+        try (Connection connection = pool.getConnection()) {
+            assertTrue(connection.unwrap(Connection.class).getAutoCommit());
+            assertEquals("public", connection.unwrap(Connection.class).getSchema());
+        }
+    }
+
+    /**
+     * A property the borrower has set back to its default itself is not reset again on return
+     */
+    @Test
+    void restoredSessionIsNotResetAgain() throws Exception {
+        M2CPStubDatabase database = createPool("dirty-state-restored");
+        try (Connection connection = pool.getConnection()) {
+            connection.setAutoCommit(false);
+            connection.setAutoCommit(true);
+        }
+        assertEquals(2, database.getCalls(M2CPStubOperation.SET_AUTO_COMMIT));
+    }
+
+    /**
+     * Creates a pool instance of one connection on the stub database of the given name
+     * @param name name of the stub database
+     * @return stub database
+     */
+    private M2CPStubDatabase createPool(String name) throws Exception {
+        pool = M2CPTestPools.create(name, 1);
+        return M2CPStubDriver.getDatabase(name);
+    }
+}
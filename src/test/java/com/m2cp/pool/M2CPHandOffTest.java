@@ -0,0 +1,118 @@
+package com.m2cp.pool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of leasing under contention, where returned connections are handed over directly to the waiting callers
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+class M2CPHandOffTest
+{
+    // Connection timeout long enough for a lost hand-off to stand out from any regular wait
+    private static final long CONNECTION_TIMEOUT = 10000;
+
+    // Max time a caller may wait for a connection held only for a moment
+    private static final long MAX_WAIT = TimeUnit.SECONDS.toNanos(2);
+
+    // Number of bursts, each one a chance for the hand-off to get lost
+    private static final int ROUNDS = 20000;
+
+    // Pool instance under test
+    private M2CP pool;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        pool.shutdown();
+    }
+
+    /**
+     * Runs short bursts of one caller more than there are connections, so that each burst ends with a caller
+     * waiting for the last returned connection. A hand-off lost between the return and the wait leaves that caller
+     * parked for the whole connection timeout, which makes the max wait time blow up
+     */
+    @Test
+    void returnedConnectionReachesLateWaiter() throws Exception {
+        int poolSize = 2;
+        int threads = poolSize + 1;
+        M2CPConfig config = M2CPTestPools.config(poolSize);
+        config.setConnectionTimeout(CONNECTION_TIMEOUT);
+        pool = M2CPTestPools.create("hand-off-burst", config);
+
+        CyclicBarrier barrier = new CyclicBarrier(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                results.add(executor.submit(() -> {
+                    for (int round = 0; round < ROUNDS; round++) {
+                        barrier.await(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS);
+                        try (Connection connection = pool.getConnection()) {
+                            assertTrue(connection.isValid(1));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        M2CPHistogramSnapshot waits = pool.getStatistics().getWaitTimes();
+        assertEquals((long) ROUNDS * threads, waits.getCount());
+        assertTrue(waits.getMax() < MAX_WAIT, "max wait " + waits.getMax() + " ns");
+    }
+
+    /**
+     * Runs many callers against a small pool, so that nearly every connection gets handed over on return
+     */
+    @Test
+    void contendedCallersAreAllServed() throws Exception {
+        int threads = 16;
+        int leases = 5000;
+        M2CPConfig config = M2CPTestPools.config(4);
+        config.setConnectionTimeout(CONNECTION_TIMEOUT);
+        pool = M2CPTestPools.create("hand-off-contention", config);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                results.add(executor.submit(() -> {
+                    for (int i = 0; i < leases; i++) {
+                        pool.getConnection().close();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        M2CPStatistics statistics = pool.getStatistics();
+        assertEquals((long) threads * leases, statistics.getWaitTimes().getCount());
+        assertEquals((long) threads * leases, statistics.getHoldTimes().getCount());
+        assertEquals(0, statistics.getTimeouts());
+        assertTrue(statistics.getHandoffLeases() > 0);
+        assertTrue(statistics.getWaitTimes().getMax() < MAX_WAIT);
+    }
+}
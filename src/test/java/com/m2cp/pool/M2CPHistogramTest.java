@@ -0,0 +1,107 @@
+package com.m2cp.pool;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of the histogram of lease wait and hold times, and of the percentiles read from its snapshots
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+class M2CPHistogramTest
+{
+    /**
+     * Percentiles of evenly spread values are never below the actual ones, overstate them by an eighth at most, and
+     * never exceed the max
+     */
+    @Test
+    void percentilesAreWithinBucketPrecision() {
+        M2CPHistogram histogram = new M2CPHistogram();
+        for (long value = 1; value <= 10000; value++) {
+            histogram.record(value);
+        }
+        M2CPHistogramSnapshot snapshot = histogram.snapshot();
+
+        assertEquals(10000, snapshot.getCount());
+        assertEquals(5000.5, snapshot.getMean());
+        assertEquals(10000, snapshot.getMax());
+        for (double percentile : new double[]{1, 25, 50, 90, 99, 99.9}) {
+            long actual = (long) Math.ceil(percentile * 100);
+            long reported = snapshot.getPercentile(percentile);
+            assertTrue(reported >= actual && reported <= actual + actual / 8,
+                    "p" + percentile + " is " + reported + " for " + actual);
+        }
+        assertEquals(10000, snapshot.getPercentile(100));
+    }
+
+    /**
+     * Values below the number of buckets per power of two get a bucket each, so their percentiles are exact
+     */
+    @Test
+    void smallValuesAreExact() {
+        M2CPHistogram histogram = new M2CPHistogram();
+        for (long value = 0; value < 8; value++) {
+            histogram.record(value);
+        }
+        M2CPHistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(0, snapshot.getPercentile(0));
+        assertEquals(3, snapshot.getPercentile(50));
+        assertEquals(7, snapshot.getPercentile(100));
+    }
+
+    /**
+     * Each value falls into a bucket whose greatest value is not below it by more than an eighth, and buckets are
+     * ordered like the values they hold, up to the largest long value
+     */
+    @Test
+    void bucketsCoverAllValues() {
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < 100000; i++) {
+            long value = random.nextLong(Long.MAX_VALUE) >>> random.nextInt(Long.SIZE - 1);
+            int bucket = M2CPHistogram.bucketOf(value);
+            long highest = M2CPHistogram.highestValueOf(bucket);
+            assertTrue(bucket >= 0 && bucket < M2CPHistogram.BUCKETS, "bucket " + bucket + " of " + value);
+            assertTrue(highest >= value && highest - value <= value / 8, highest + " for " + value);
+            assertTrue(bucket == 0 || M2CPHistogram.highestValueOf(bucket - 1) < value, "bucket " + bucket);
+        }
+        assertEquals(M2CPHistogram.BUCKETS - 1, M2CPHistogram.bucketOf(Long.MAX_VALUE));
+        assertEquals(Long.MAX_VALUE, M2CPHistogram.highestValueOf(M2CPHistogram.BUCKETS - 1));
+    }
+
+    /**
+     * A snapshot does not change when more values are recorded afterwards, and an empty one reports zeros
+     */
+    @Test
+    void snapshotIsImmutable() {
+        M2CPHistogram histogram = new M2CPHistogram();
+        M2CPHistogramSnapshot empty = histogram.snapshot();
+        histogram.record(1000);
+        M2CPHistogramSnapshot snapshot = histogram.snapshot();
+        histogram.record(1000000);
+
+        assertEquals(0, empty.getCount());
+        assertEquals(0, empty.getPercentile(99));
+        assertEquals(1, snapshot.getCount());
+        assertEquals(1000, snapshot.getMax());
+        assertEquals(1000, snapshot.getPercentile(100));
+    }
+
+    /**
+     * A negative time, e.g. from a clock going backwards, counts as zero, and a percentile out of range is refused
+     */
+    @Test
+    void invalidInputIsHandled() {
+        M2CPHistogram histogram = new M2CPHistogram();
+        histogram.record(-5);
+        M2CPHistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(0, snapshot.getMax());
+        assertEquals(0, snapshot.getPercentile(50));
+        assertThrows(M2CPException.class, () -> snapshot.getPercentile(101));
+        assertThrows(M2CPException.class, () -> snapshot.getPercentile(-1));
+    }
+}
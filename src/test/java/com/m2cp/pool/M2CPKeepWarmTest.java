@@ -0,0 +1,94 @@
+package com.m2cp.pool;
+
+import com.m2cp.pool.stub.M2CPStubDatabase;
+import com.m2cp.pool.stub.M2CPStubDriver;
+import com.m2cp.pool.stub.M2CPStubOperation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of keep-warm mode, where an idle pool instance is not shut down but has its idle connections validated
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+class M2CPKeepWarmTest
+{
+    // Max idle time short enough to elapse a few times during a test
+    private static final long MAX_TIME_IDLE = 100;
+
+    // Pool instance under test
+    private M2CP pool;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        pool.shutdown();
+    }
+
+    /**
+     * Without keep-warm mode, a pool instance that has been idle for max idle time is shut down and closes its
+     * connections
+     */
+    @Test
+    void idlePoolIsShutDown() throws Exception {
+        M2CPStubDatabase database = M2CPStubDriver.getDatabase("keep-warm-off");
+        pool = M2CPTestPools.create(database.getName(), createConfig(false));
+
+        assertTrue(M2CPTestPools.await(pool::isShutdown, 5000));
+        assertTrue(M2CPTestPools.await(() -> database.getOpenConnections() == 0, 5000));
+    }
+
+    /**
+     * In keep-warm mode, a pool instance that has been idle for several times max idle time is still running, and
+     * its idle connections are validated meanwhile
+     */
+    @Test
+    void idlePoolIsKeptWarm() throws Exception {
+        int poolSize = 2;
+        M2CPStubDatabase database = M2CPStubDriver.getDatabase("keep-warm-on");
+        pool = M2CPTestPools.create(database.getName(), createConfig(true));
+
+        assertTrue(M2CPTestPools.await(() -> database.getCalls(M2CPStubOperation.IS_VALID) >= poolSize * 2, 5000));
+        assertFalse(pool.isShutdown());
+        assertEquals(poolSize, database.getOpenConnections());
+        try (Connection connection = pool.getConnection()) {
+            assertTrue(connection.isValid(1));
+        }
+    }
+
+    /**
+     * In keep-warm mode, idle connections broken during a quiet period are replaced before the next caller comes
+     */
+    @Test
+    void brokenIdleConnectionsAreReplaced() throws Exception {
+        int poolSize = 2;
+        M2CPStubDatabase database = M2CPStubDriver.getDatabase("keep-warm-broken");
+        pool = M2CPTestPools.create(database.getName(), createConfig(true));
+
+        database.breakConnections();
+        assertTrue(M2CPTestPools.await(() -> pool.getStatistics().getDestroyedConnections() == poolSize
+                && pool.getStatistics().getCreatedConnections() == poolSize * 2, 5000));
+        try (Connection connection = pool.getConnection()) {
+            assertTrue(connection.isValid(1));
+        }
+        assertFalse(pool.isShutdown());
+    }
+
+    /**
+     * Creates settings of a pool instance of two connections with short max idle time
+     * @param keepWarm true to keep the pool warm; false to shut it down when idle
+     * @return settings of the pool instance
+     */
+    private static M2CPConfig createConfig(boolean keepWarm) {
+        M2CPConfig config = M2CPTestPools.config(2);
+        config.setMaxTimeIdle(MAX_TIME_IDLE);
+        config.setCleanerSleep(20);
+        config.setKeepWarm(keepWarm);
+        return config;
+    }
+}
@@ -0,0 +1,56 @@
+package com.m2cp.pool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of leasing connections from a pool instance with and without waiting for one to be returned
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+class M2CPLeaseTest
+{
+    // Pool instance under test
+    private M2CP pool;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        pool.shutdown();
+    }
+
+    /**
+     * A caller with zero timeout gets an idle connection without waiting
+     */
+    @Test
+    void zeroTimeoutLeasesIdleConnection() throws Exception {
+        pool = M2CPTestPools.create("lease-zero-timeout", 2);
+        try (Connection held = pool.getConnection(); Connection idle = pool.getConnection(0)) {
+            assertNotNull(held);
+            assertNotNull(idle);
+            assertEquals(0, pool.getStatistics().getTimeouts());
+        }
+    }
+
+    /**
+     * A caller with zero timeout fails right away when the pool is exhausted
+     */
+    @Test
+    void zeroTimeoutFailsFastWhenExhausted() throws Exception {
+        pool = M2CPTestPools.create("lease-zero-timeout-exhausted", 1);
+        try (Connection held = pool.getConnection()) {
+            long started = System.nanoTime();
+            assertThrows(M2CPException.class, () -> pool.getConnection(0));
+            assertTrue(System.nanoTime() - started < TimeUnit.MILLISECONDS.toNanos(500));
+            assertEquals(1, pool.getStatistics().getTimeouts());
+            assertTrue(held.isValid(1));
+        }
+    }
+}
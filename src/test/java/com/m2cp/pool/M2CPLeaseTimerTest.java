@@ -0,0 +1,134 @@
+package com.m2cp.pool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of reclaiming expired leases and reporting leaks by the lease timer
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+class M2CPLeaseTimerTest
+{
+    // Max lease time in milliseconds of the pool under test
+    private static final long MAX_TIME_LEASE = 300;
+
+    // Pool instance under test
+    private M2CP pool;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        pool.shutdown();
+    }
+
+    /**
+     * A lease is reclaimed near max lease time even if the leak threshold is far longer
+     */
+    @Test
+    void reclaimIsNotDelayedByLongerLeakThreshold() throws Exception {
+        pool = createPool("lease-timer-long-leak", 3000);
+        assertReclaimedNearMaxTimeLease();
+    }
+
+    /**
+     * A lease is reclaimed near max lease time when leak detection is disabled
+     */
+    @Test
+    void reclaimWithoutLeakDetection() throws Exception {
+        pool = createPool("lease-timer-no-leak", 0);
+        assertReclaimedNearMaxTimeLease();
+    }
+
+    /**
+     * A lease lasting longer than a leak threshold shorter than max lease time is reported first, and reclaimed
+     * near max lease time afterwards
+     */
+    @Test
+    void leakIsReportedBeforeReclaim() throws Exception {
+        pool = createPool("lease-timer-short-leak", MAX_TIME_LEASE / 3);
+        long started = System.nanoTime();
+        pool.getConnection();
+        while (pool.getStatistics().getLeakedLeases() == 0) {
+            Thread.sleep(5);
+        }
+        assertEquals(0, pool.getStatistics().getReclaimedLeases());
+        assertTrue(System.nanoTime() - started < TimeUnit.MILLISECONDS.toNanos(MAX_TIME_LEASE));
+
+        awaitReclaim(started);
+    }
+
+    /**
+     * A lease that has been returned right before the lease timer gets to it can't be reclaimed anymore, so the
+     * wrapper stays in the pool
+     */
+    @Test
+    void returnedLeaseIsNotReclaimed() throws Exception {
+        pool = createPool("lease-timer-returned", 0);
+        M2CPWrapper wrapper = (M2CPWrapper) pool.getConnection();
+        long leased = wrapper.getLastTimeLeased();
+        wrapper.close();
+
+        assertFalse(wrapper.tryReclaim(leased));
+        assertSame(wrapper, pool.getConnection());
+    }
+
+    /**
+     * A lease that has been reclaimed by the lease timer right before the user app returns it is not passed on to
+     * the next caller
+     */
+    @Test
+    void reclaimedLeaseIsNotReturned() throws Exception {
+        pool = createPool("lease-timer-reclaimed", 0);
+        M2CPWrapper wrapper = (M2CPWrapper) pool.getConnection();
+        assertTrue(wrapper.tryReclaim(wrapper.getLastTimeLeased()));
+        wrapper.close();
+        pool.removeWrapper(wrapper, true);
+
+        assertNotSame(wrapper, pool.getConnection());
+    }
+
+    /**
+     * Creates a pool instance of one connection with the given leak threshold on the stub database of the given name
+     * @param database name of the stub database
+     * @param leakDetectionThreshold leak threshold in milliseconds, zero to disable leak detection
+     * @return pool instance
+     */
+    private static M2CP createPool(String database, long leakDetectionThreshold) throws SQLException {
+        M2CPConfig config = M2CPTestPools.config(1);
+        config.setMaxTimeLease(MAX_TIME_LEASE);
+        config.setLeakDetectionThreshold(leakDetectionThreshold);
+        return M2CPTestPools.create(database, config);
+    }
+
+    /**
+     * Leases a connection and asserts that it gets reclaimed close to max lease time
+     */
+    private void assertReclaimedNearMaxTimeLease() throws Exception {
+        long started = System.nanoTime();
+        pool.getConnection();
+        awaitReclaim(started);
+    }
+
+    /**
+     * Waits for the first lease to be reclaimed, and asserts that it has not taken much longer than max lease time
+     * @param started time in nanoseconds the lease has started
+     */
+    private void awaitReclaim(long started) throws InterruptedException {
+        long deadline = started + TimeUnit.MILLISECONDS.toNanos(MAX_TIME_LEASE * 5);
+        while (pool.getStatistics().getReclaimedLeases() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        assertEquals(1, pool.getStatistics().getReclaimedLeases());
+        assertTrue(elapsed >= MAX_TIME_LEASE && elapsed < MAX_TIME_LEASE * 2, "reclaimed after " + elapsed + " ms");
+    }
+}
@@ -0,0 +1,170 @@
+package com.m2cp.pool;
+
+import com.m2cp.pool.stub.M2CPStubDatabase;
+import com.m2cp.pool.stub.M2CPStubDriver;
+import com.m2cp.pool.stub.M2CPStubLatency;
+import com.m2cp.pool.stub.M2CPStubOperation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of notifying listeners of what happens in a pool instance, both on the calling threads and on the shared
+ * listener thread
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+class M2CPListenerTest
+{
+    // Time the stub database takes to close a connection
+    private static final long CLOSE_LATENCY = 200;
+
+    // Pool instance under test
+    private M2CP pool;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        pool.shutdown();
+    }
+
+    /**
+     * Lease and return events are delivered in order on the thread of the borrower
+     */
+    @Test
+    void eventsAreDeliveredOnCallingThread() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        M2CPConfig config = M2CPTestPools.config(1);
+        config.setListeners(listener);
+        pool = M2CPTestPools.create("listener-sync", config);
+        assertTrue(M2CPTestPools.await(() -> listener.events.contains("create"), 5000));
+
+        pool.getConnection().close();
+        pool.getConnection().close();
+
+        assertEquals(Arrays.asList("create", "lease", "return", "lease", "return"), listener.events);
+        String caller = Thread.currentThread().getName();
+        assertEquals(Arrays.asList(caller, caller, caller, caller), listener.threads.subList(1, 5));
+    }
+
+    /**
+     * Events are delivered in order on the listener thread, so the borrower does not run the listeners itself
+     */
+    @Test
+    void asyncEventsAreDeliveredInOrderOnListenerThread() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        M2CPConfig config = M2CPTestPools.config(1);
+        config.setListeners(listener);
+        config.setAsyncListeners(true);
+        pool = M2CPTestPools.create("listener-async", config);
+
+        for (int i = 0; i < 3; i++) {
+            pool.getConnection().close();
+        }
+
+        assertTrue(M2CPTestPools.await(() -> listener.events.size() == 7, 5000));
+        assertEquals(Arrays.asList("create", "lease", "return", "lease", "return", "lease", "return"),
+                listener.events);
+        for (String thread : listener.threads) {
+            assertTrue(thread.startsWith("m2cp-listener-"), thread);
+        }
+    }
+
+    /**
+     * The destroy event is fired by the connector thread once the driver has closed the connection, rather than
+     * when the close is merely queued
+     */
+    @Test
+    void destroyEventFollowsClose() throws Exception {
+        M2CPStubDatabase database = M2CPStubDriver.getDatabase("listener-destroy");
+        database.setLatency(M2CPStubOperation.CLOSE, M2CPStubLatency.fixed(CLOSE_LATENCY, TimeUnit.MILLISECONDS));
+        List<Long> closeCalls = new CopyOnWriteArrayList<>();
+        List<Long> destroyTimes = new CopyOnWriteArrayList<>();
+        List<String> destroyThreads = new CopyOnWriteArrayList<>();
+        M2CPConfig config = M2CPTestPools.config(1);
+        config.setListeners(new M2CPListener() {
+            @Override
+            public void onDestroy(M2CP pool) {
+                closeCalls.add(database.getCalls(M2CPStubOperation.CLOSE));
+                destroyThreads.add(Thread.currentThread().getName());
+                destroyTimes.add(System.nanoTime());
+            }
+        });
+        pool = M2CPTestPools.create(database.getName(), config);
+
+        long start = System.nanoTime();
+        pool.shutdown();
+
+        assertTrue(M2CPTestPools.await(() -> !destroyTimes.isEmpty(), 5000));
+        assertEquals(List.of(1L), closeCalls);
+        assertTrue(destroyTimes.get(0) - start >= TimeUnit.MILLISECONDS.toNanos(CLOSE_LATENCY));
+        assertEquals(0, database.getOpenConnections());
+        assertTrue(destroyThreads.get(0).startsWith("m2cp-connector-"), destroyThreads.get(0));
+    }
+
+    /**
+     * A listener that throws keeps neither the pool nor the listeners after it from carrying on
+     */
+    @Test
+    void failingListenerDoesNotStopOthers() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        M2CPConfig config = M2CPTestPools.config(1);
+        config.setListeners(new M2CPListener() {
+            @Override
+            public void onLease(M2CP pool, long waitNanos) {
+                throw new IllegalStateException("listener failure");
+            }
+        }, listener);
+        pool = M2CPTestPools.create("listener-failing", config);
+
+        try (Connection connection = pool.getConnection()) {
+            assertTrue(connection.isValid(1));
+        }
+        assertTrue(listener.events.contains("lease"));
+        assertTrue(listener.events.contains("return"));
+    }
+
+    /**
+     * Listener that records each event along with the thread it has been delivered on
+     */
+    private static final class RecordingListener implements M2CPListener
+    {
+        // Events in the order of delivery
+        private final List<String> events = new CopyOnWriteArrayList<>();
+
+        // Names of the threads each event has been delivered on
+        private final List<String> threads = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onLease(M2CP pool, long waitNanos) {
+            record("lease");
+        }
+
+        @Override
+        public void onReturn(M2CP pool, long holdNanos) {
+            record("return");
+        }
+
+        @Override
+        public void onCreate(M2CP pool, long creationNanos) {
+            record("create");
+        }
+
+        /**
+         * Records an event
+         * @param event name of the event
+         */
+        private void record(String event) {
+            // The thread goes first, so that a test waiting for the event also sees its thread
+            threads.add(Thread.currentThread().getName());
+            events.add(event);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.m2cp.pool;
+
+import com.m2cp.pool.stub.M2CPStubDatabase;
+import com.m2cp.pool.stub.M2CPStubDriver;
+import com.m2cp.pool.stub.M2CPStubOperation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Tests of managing a running pool instance through its MXBean
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+class M2CPManagementTest
+{
+    // Pool instance under test
+    private M2CP pool;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        pool.shutdown();
+    }
+
+    /**
+     * Max idle time changed through the MXBean takes effect on background validation in keep-warm mode, where it
+     * doubles as the validation interval
+     */
+    @Test
+    void maxTimeIdleChangesKeepWarmValidation() throws Exception {
+        M2CPStubDatabase database = M2CPStubDriver.getDatabase("management-keep-warm");
+        M2CPConfig config = M2CPTestPools.config(2);
+        config.setKeepWarm(true);
+        config.setCleanerSleep(20);
+        config.setJmxEnabled(true);
+        pool = M2CPTestPools.create(database.getName(), config);
+        M2CPPoolMXBean management = getMXBean(database.getName());
+
+        long validated = database.getCalls(M2CPStubOperation.IS_VALID);
+        Thread.sleep(200);
+        assertEquals(validated, database.getCalls(M2CPStubOperation.IS_VALID));
+
+        management.setMaxTimeIdle(50);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (database.getCalls(M2CPStubOperation.IS_VALID) == validated && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(database.getCalls(M2CPStubOperation.IS_VALID) > validated);
+    }
+
+    /**
+     * A leak threshold set through the MXBean applies to a lease that has started before, even though the timer
+     * had nothing to watch for when the lease started
+     */
+    @Test
+    void leakThresholdAppliesToCurrentLease() throws Exception {
+        M2CPConfig config = M2CPTestPools.config(1);
+        config.setJmxEnabled(true);
+        pool = M2CPTestPools.create("management-leak-threshold", config);
+        M2CPPoolMXBean management = getMXBean("management-leak-threshold");
+
+        pool.getConnection();
+        management.setLeakDetectionThreshold(100);
+        assertTrue(M2CPTestPools.await(() -> pool.getStatistics().getLeakedLeases() == 1, 5000));
+        assertEquals(0, pool.getStatistics().getReclaimedLeases());
+    }
+
+    /**
+     * Switching to warn-only mode through the MXBean keeps a current lease from being reclaimed after max lease
+     * time, and reports it as a leak instead
+     */
+    @Test
+    void warnOnlyModeAppliesToCurrentLease() throws Exception {
+        long maxTimeLease = 200;
+        M2CPConfig config = M2CPTestPools.config(1);
+        config.setMaxTimeLease(maxTimeLease);
+        config.setJmxEnabled(true);
+        pool = M2CPTestPools.create("management-warn-only", config);
+        M2CPPoolMXBean management = getMXBean("management-warn-only");
+
+        pool.getConnection();
+        management.setLeakWarnOnly(true);
+        assertTrue(M2CPTestPools.await(() -> pool.getStatistics().getLeakedLeases() == 1, 5000));
+        Thread.sleep(maxTimeLease * 2);
+        assertEquals(0, pool.getStatistics().getReclaimedLeases());
+    }
+
+    /**
+     * Looks up the MXBean of the pool instance on the given stub database in the platform MBean server
+     * @param database name of the stub database
+     * @return proxy of the MXBean
+     */
+    private static M2CPPoolMXBean getMXBean(String database) throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : server.queryNames(new ObjectName("com.m2cp.pool:type=Pool,*"), null)) {
+            M2CPPoolMXBean management = JMX.newMXBeanProxy(server, name, M2CPPoolMXBean.class);
+            if (management.getDatasource().contains(M2CPStubDriver.url(database))) {
+                return management;
+            }
+        }
+        return fail("MXBean of " + database + " is not registered");
+    }
+}
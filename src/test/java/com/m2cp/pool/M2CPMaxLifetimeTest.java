@@ -0,0 +1,103 @@
+package com.m2cp.pool;
+
+import com.m2cp.pool.stub.M2CPStubDatabase;
+import com.m2cp.pool.stub.M2CPStubDriver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of replacing connections that have outlived their max lifetime, which is shortened by a random jitter
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+class M2CPMaxLifetimeTest
+{
+    // Pool instance under test
+    private M2CP pool;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        pool.shutdown();
+    }
+
+    /**
+     * Idle connections are replaced by the cleaner once they have outlived max lifetime
+     */
+    @Test
+    void idleConnectionsAreReplaced() throws Exception {
+        int poolSize = 4;
+        M2CPStubDatabase database = M2CPStubDriver.getDatabase("max-lifetime-idle");
+        pool = M2CPTestPools.create(database.getName(), createConfig(poolSize, 200));
+
+        assertTrue(M2CPTestPools.await(() -> pool.getStatistics().getDestroyedConnections() >= poolSize
+                && pool.getStatistics().getCreatedConnections() >= poolSize * 2, 5000));
+        assertEquals(0, pool.getStatistics().getReclaimedLeases());
+    }
+
+    /**
+     * A connection outliving max lifetime while it is leased stays with its borrower, and gets replaced once it is
+     * returned
+     */
+    @Test
+    void leasedConnectionIsReplacedOnReturn() throws Exception {
+        M2CPStubDatabase database = M2CPStubDriver.getDatabase("max-lifetime-leased");
+        pool = M2CPTestPools.create(database.getName(), createConfig(1, 200));
+
+        Connection connection = pool.getConnection();
+        Thread.sleep(400);
+        assertTrue(connection.isValid(1));
+        assertEquals(0, pool.getStatistics().getDestroyedConnections());
+        connection.close();
+
+        assertEquals(1, pool.getStatistics().getDestroyedConnections());
+        try (Connection replacement = pool.getConnection()) {
+            assertNotSame(connection, replacement);
+        }
+    }
+
+    /**
+     * Connections opened together on warm-up do not expire together, as each one gets up to a tenth of max lifetime
+     * taken off at random, and none of them expires before nine tenths of it
+     */
+    @Test
+    void expiryIsSpreadByJitter() throws Exception {
+        int poolSize = 20;
+        long maxLifetime = 100000;
+        M2CPStubDatabase database = M2CPStubDriver.getDatabase("max-lifetime-jitter");
+        long created = System.currentTimeMillis();
+        pool = M2CPTestPools.create(database.getName(), createConfig(poolSize, maxLifetime));
+
+        int expiredEarly = 0;
+        int expiredLate = 0;
+        for (M2CPWrapper wrapper : pool.getWrapperList()) {
+            assertFalse(wrapper.isExpired(created + maxLifetime * 9 / 10 - 1));
+            assertTrue(wrapper.isExpired(System.currentTimeMillis() + maxLifetime));
+            if (wrapper.isExpired(created + maxLifetime * 95 / 100)) {
+                expiredEarly++;
+            } else {
+                expiredLate++;
+            }
+        }
+        assertTrue(expiredEarly > 0 && expiredLate > 0, expiredEarly + " expired early, " + expiredLate + " late");
+    }
+
+    /**
+     * Creates settings of a pool instance with the given max lifetime and a short cleaner sleep time
+     * @param poolSize number of connections
+     * @param maxLifetime max lifetime in milliseconds
+     * @return settings of the pool instance
+     */
+    private static M2CPConfig createConfig(int poolSize, long maxLifetime) {
+        M2CPConfig config = M2CPTestPools.config(poolSize);
+        config.setMaxLifetime(maxLifetime);
+        config.setCleanerSleep(20);
+        return config;
+    }
+}
@@ -0,0 +1,152 @@
+package com.m2cp.pool;
+
+import com.m2cp.pool.stub.M2CPStubDatabase;
+import com.m2cp.pool.stub.M2CPStubDriver;
+import com.m2cp.pool.stub.M2CPStubLatency;
+import com.m2cp.pool.stub.M2CPStubOperation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of a pool instance running against the stub database with latency and failures, standing in for a real
+ * database that is slow or goes away
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+class M2CPPoolTest
+{
+    // Pool instance under test
+    private M2CP pool;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        pool.shutdown();
+    }
+
+    /**
+     * More callers than connections, each one holding its connection for a while, are all served by hand-off
+     * without any timeout, and the pool never opens more connections than its size
+     */
+    @Test
+    void contendedCallersAreServedByHandOff() throws Exception {
+        int poolSize = 4;
+        int threads = 16;
+        int leases = 200;
+        M2CPStubDatabase database = M2CPStubDriver.getDatabase("pool-contention")
+                .setLatency(M2CPStubOperation.CONNECT, M2CPStubLatency.fixed(5, TimeUnit.MILLISECONDS))
+                .setLatency(M2CPStubOperation.SET_AUTO_COMMIT,
+                        M2CPStubLatency.uniform(50, 500, TimeUnit.MICROSECONDS));
+        M2CPConfig config = M2CPTestPools.config(poolSize);
+        config.setConnectionTimeout(10000);
+        pool = M2CPTestPools.create(database.getName(), config);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                results.add(executor.submit(() -> {
+                    for (int i = 0; i < leases; i++) {
+                        try (Connection connection = pool.getConnection()) {
+                            // The stub takes a while to switch auto-commit, so the connection is held meanwhile
+                            connection.setAutoCommit(false);
+                            connection.setAutoCommit(true);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        M2CPStatistics statistics = pool.getStatistics();
+        assertEquals((long) threads * leases, statistics.getHoldTimes().getCount());
+        assertEquals(0, statistics.getTimeouts());
+        assertTrue(statistics.getHandoffLeases() > 0);
+        assertEquals(poolSize, statistics.getCreatedConnections());
+        assertEquals(poolSize, database.getOpenConnections());
+    }
+
+    /**
+     * A caller of an exhausted pool waits for the connection timeout, and then fails
+     */
+    @Test
+    void exhaustedPoolTimesOut() throws Exception {
+        long timeout = 200;
+        M2CPConfig config = M2CPTestPools.config(2);
+        config.setConnectionTimeout(timeout);
+        pool = M2CPTestPools.create("pool-exhausted", config);
+
+        try (Connection first = pool.getConnection(); Connection second = pool.getConnection()) {
+            long started = System.nanoTime();
+            assertThrows(M2CPException.class, () -> pool.getConnection());
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            assertTrue(elapsed >= timeout && elapsed < timeout * 5, "timed out after " + elapsed + " ms");
+        }
+        assertEquals(1, pool.getStatistics().getTimeouts());
+    }
+
+    /**
+     * Connections broken while idle, e.g. by a database restart, are discarded on lease and replaced with fresh
+     * ones, so the caller gets a working connection
+     */
+    @Test
+    void brokenConnectionsAreDiscarded() throws Exception {
+        int poolSize = 2;
+        M2CPStubDatabase database = M2CPStubDriver.getDatabase("pool-broken");
+        M2CPConfig config = M2CPTestPools.config(poolSize);
+        config.setValidationWindow(0);
+        pool = M2CPTestPools.create(database.getName(), config);
+
+        database.breakConnections();
+        for (int i = 0; i < poolSize; i++) {
+            try (Connection connection = pool.getConnection()) {
+                assertTrue(connection.isValid(1));
+            }
+        }
+        assertEquals(poolSize, pool.getStatistics().getDestroyedConnections());
+        // Replacements are opened and broken connections closed in the background, so some may still be on the way
+        assertTrue(M2CPTestPools.await(() -> pool.getStatistics().getCreatedConnections() == poolSize * 2
+                && database.getOpenConnections() == poolSize, 5000));
+    }
+
+    /**
+     * A lease exceeding max lease time is reclaimed on time even if the database is slow to close connections, and
+     * its replacement gets leased meanwhile
+     */
+    @Test
+    void expiredLeaseIsReclaimedDespiteSlowClose() throws Exception {
+        long maxTimeLease = 200;
+        long slowClose = 1000;
+        M2CPStubDatabase database = M2CPStubDriver.getDatabase("pool-reclaim")
+                .setLatency(M2CPStubOperation.CLOSE, M2CPStubLatency.fixed(slowClose, TimeUnit.MILLISECONDS));
+        M2CPConfig config = M2CPTestPools.config(1);
+        config.setMaxTimeLease(maxTimeLease);
+        config.setConnectionTimeout(slowClose * 2);
+        pool = M2CPTestPools.create(database.getName(), config);
+
+        long started = System.nanoTime();
+        pool.getConnection();
+        try (Connection replacement = pool.getConnection()) {
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            assertTrue(replacement.isValid(1));
+            assertTrue(elapsed >= maxTimeLease && elapsed < slowClose, "replaced after " + elapsed + " ms");
+        }
+        assertEquals(1, pool.getStatistics().getReclaimedLeases());
+    }
+}
@@ -0,0 +1,82 @@
+package com.m2cp.pool;
+
+import com.m2cp.pool.stub.M2CPStubDatabase;
+import com.m2cp.pool.stub.M2CPStubDriver;
+import com.m2cp.pool.stub.M2CPStubLatency;
+import com.m2cp.pool.stub.M2CPStubOperation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of the registry of pool instances, one per datasource
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+class M2CPRegistryTest
+{
+    // Time in milliseconds the slow database takes to open a connection
+    private static final long SLOW_CONNECT = 2000;
+
+    // Pool instances created by the test
+    private final List<M2CP> pools = new ArrayList<>();
+
+    // Threads creating pool instances in the background
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void tearDown() throws Exception {
+        executor.shutdownNow();
+        executor.awaitTermination(SLOW_CONNECT * 2, TimeUnit.MILLISECONDS);
+        for (M2CP pool : pools) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * A pool instance opening its connections slowly does not hold up the creation of a pool instance of another
+     * datasource, while the callers of its own datasource all get the same instance
+     */
+    @Test
+    void slowWarmUpHoldsUpOwnDatasourceOnly() throws Exception {
+        M2CPStubDriver.getDatabase("registry-slow")
+                .setLatency(M2CPStubOperation.CONNECT, M2CPStubLatency.fixed(SLOW_CONNECT, TimeUnit.MILLISECONDS));
+        Future<M2CP> first = executor.submit(() -> M2CPTestPools.create("registry-slow", 1));
+        Future<M2CP> second = executor.submit(() -> M2CPTestPools.create("registry-slow", 1));
+        while (M2CPStubDriver.getDatabase("registry-slow").getCalls(M2CPStubOperation.CONNECT) == 0) {
+            Thread.sleep(1);
+        }
+
+        long started = System.nanoTime();
+        pools.add(M2CPTestPools.create("registry-fast", 1));
+        assertTrue(System.nanoTime() - started < TimeUnit.MILLISECONDS.toNanos(SLOW_CONNECT / 2));
+
+        M2CP slow = first.get();
+        pools.add(slow);
+        assertSame(slow, second.get());
+    }
+
+    /**
+     * A failed creation leaves the registry, so the next caller creates the pool instance anew
+     */
+    @Test
+    void failedCreationIsRetried() throws Exception {
+        M2CPStubDatabase database = M2CPStubDriver.getDatabase("registry-failing")
+                .setFailureRate(M2CPStubOperation.CONNECT, 1);
+        assertThrows(SQLException.class, () -> M2CPTestPools.create("registry-failing", 1));
+
+        database.reset();
+        pools.add(M2CPTestPools.create("registry-failing", 1));
+    }
+}
@@ -0,0 +1,154 @@
+package com.m2cp.pool;
+
+import com.m2cp.pool.stub.M2CPStubDatabase;
+import com.m2cp.pool.stub.M2CPStubDriver;
+import com.m2cp.pool.stub.M2CPStubOperation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of resetting the session state of a connection on return after the real connection has been exposed
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+class M2CPSessionStateTest
+{
+    // Pool instance under test
+    private M2CP pool;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        pool.shutdown();
+    }
+
+    /**
+     * Unwrapping the connection on each lease without changing the session costs no reset on return
+     */
+    @Test
+    void unchangedSessionIsNotResetAfterUnwrap() throws Exception {
+        M2CPStubDatabase database = createPool("session-unwrap-unchanged");
+        for (int i = 0; i < 10; i++) {
+            try (Connection connection = pool.getConnection()) {
+                connection.unwrap(Connection.class);
+            }
+        }
+        assertEquals(0, database.getCalls(M2CPStubOperation.SET_AUTO_COMMIT));
+    }
+
+    /**
+     * Session defaults are read from the driver once, when the connection is opened, and later borrowers get the
+     * session properties from the cache
+     */
+    @Test
+    void defaultsAreCapturedOncePerConnection() throws Exception {
+        M2CPStubDatabase database = createPool("session-defaults-once");
+        long captured = database.getCalls(M2CPStubOperation.GET_SESSION_PROPERTY);
+        for (int i = 0; i < 10; i++) {
+            try (Connection connection = pool.getConnection()) {
+                assertTrue(connection.getAutoCommit());
+                assertEquals("public", connection.getSchema());
+            }
+        }
+        assertEquals(captured, database.getCalls(M2CPStubOperation.GET_SESSION_PROPERTY));
+    }
+
+    /**
+     * Unwrapping reads nothing from the driver, however often it is repeated within a lease, and the session is
+     * read back once on return
+     */
+    @Test
+    void repeatedUnwrapIsNotReadBack() throws Exception {
+        M2CPStubDatabase database = createPool("session-unwrap-repeated");
+        long captured = database.getCalls(M2CPStubOperation.GET_SESSION_PROPERTY);
+        try (Connection connection = pool.getConnection()) {
+            for (int i = 0; i < 10; i++) {
+                connection.unwrap(Connection.class);
+            }
+            assertEquals(captured, database.getCalls(M2CPStubOperation.GET_SESSION_PROPERTY));
+        }
+        long readBack = database.getCalls(M2CPStubOperation.GET_SESSION_PROPERTY) - captured;
+        assertTrue(readBack > 0 && readBack < 7, "read back " + readBack + " properties");
+    }
+
+    /**
+     * Once the connection has been unwrapped, the wrapper reports the session as changed through the real
+     * connection, however often it is changed afterwards
+     */
+    @Test
+    void exposedSessionIsReadFromDriver() throws Exception {
+        createPool("session-unwrap-read-through");
+        try (Connection connection = pool.getConnection()) {
+            Connection real = connection.unwrap(Connection.class);
+            assertEquals("public", connection.getSchema());
+            real.setSchema("other");
+            assertEquals("other", connection.getSchema());
+            real.setSchema("another");
+            assertEquals("another", connection.getSchema());
+        }
+        try (Connection connection = pool.getConnection()) {
+            assertEquals("public", connection.getSchema());
+        }
+    }
+
+    /**
+     * A session property changed through the unwrapped connection gets reset on return
+     */
+    @Test
+    void changedSessionIsResetAfterUnwrap() throws Exception {
+        M2CPStubDatabase database = createPool("session-unwrap-changed");
+        try (Connection connection = pool.getConnection()) {
+            connection.unwrap(Connection.class).setAutoCommit(false);
+        }
+        // One call by the user app, and one by the reset on return
+        assertEquals(2, database.getCalls(M2CPStubOperation.SET_AUTO_COMMIT));
+        try (Connection connection = pool.getConnection()) {
+            assertTrue(connection.unwrap(Connection.class).getAutoCommit());
+        }
+    }
+
+    /**
+     * A session property changed through the connection of an unwrapped statement gets reset on return
+     */
+    @Test
+    void changedSessionIsResetAfterStatementUnwrap() throws Exception {
+        createPool("session-statement-unwrap");
+        try (Connection connection = pool.getConnection(); Statement statement = connection.createStatement()) {
+            statement.unwrap(Statement.class).getConnection().setSchema("other");
+        }
+        try (Connection connection = pool.getConnection()) {
+            assertEquals("public", connection.getSchema());
+        }
+    }
+
+    /**
+     * A network timeout changed through the unwrapped connection can't be reset without an executor, so it is left
+     * as it is instead of failing the return
+     */
+    @Test
+    void networkTimeoutWithoutExecutorIsLeftAsItIs() throws Exception {
+        createPool("session-network-timeout");
+        try (Connection connection = pool.getConnection()) {
+            connection.unwrap(Connection.class).setNetworkTimeout(null, 1000);
+        }
+        try (Connection connection = pool.getConnection()) {
+            assertEquals(1000, connection.getNetworkTimeout());
+        }
+        assertEquals(0, pool.getStatistics().getDestroyedConnections());
+    }
+
+    /**
+     * Creates a pool instance of one connection on the stub database of the given name
+     * @param name name of the stub database
+     * @return stub database
+     */
+    private M2CPStubDatabase createPool(String name) throws Exception {
+        pool = M2CPTestPools.create(name, 1);
+        return M2CPStubDriver.getDatabase(name);
+    }
+}
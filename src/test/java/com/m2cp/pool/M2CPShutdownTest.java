@@ -0,0 +1,48 @@
+package com.m2cp.pool;
+
+import com.m2cp.pool.stub.M2CPStubDatabase;
+import com.m2cp.pool.stub.M2CPStubDriver;
+import com.m2cp.pool.stub.M2CPStubLatency;
+import com.m2cp.pool.stub.M2CPStubOperation;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of shutting a pool instance down
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+class M2CPShutdownTest
+{
+    // Time in milliseconds the database takes to close a connection
+    private static final long SLOW_CLOSE = 500;
+
+    /**
+     * Shutdown leaves closing connections to the connector threads, so neither the caller nor the shared scheduler
+     * waits for a slow database, while each connection still gets closed
+     */
+    @Test
+    void slowCloseDoesNotHoldUpShutdown() throws Exception {
+        M2CPStubDatabase database = M2CPStubDriver.getDatabase("shutdown-slow-close")
+                .setLatency(M2CPStubOperation.CLOSE, M2CPStubLatency.fixed(SLOW_CLOSE, TimeUnit.MILLISECONDS));
+        M2CPConfig config = M2CPTestPools.config(4);
+        config.setWarmupThreads(4);
+        M2CP pool = M2CPTestPools.create("shutdown-slow-close", config);
+        assertEquals(4, database.getOpenConnections());
+
+        long started = System.nanoTime();
+        pool.shutdown();
+        assertTrue(System.nanoTime() - started < TimeUnit.MILLISECONDS.toNanos(SLOW_CLOSE / 2));
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SLOW_CLOSE * 10);
+        while (database.getOpenConnections() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, database.getOpenConnections());
+        assertEquals(4, pool.getStatistics().getDestroyedConnections());
+    }
+}
@@ -0,0 +1,121 @@
+package com.m2cp.pool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/**
+ * Tests of reusing prepared statements from the statement cache of a connection
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+class M2CPStatementCacheTest
+{
+    // Pool instance under test
+    private M2CP pool;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        pool.shutdown();
+    }
+
+    /**
+     * Limits changed by the user app are restored to the values the driver gave them, not to zero, before the
+     * statement is reused
+     */
+    @Test
+    void limitsAreRestoredToDriverDefaults() throws Exception {
+        pool = createPool("statement-cache-limits", 4);
+
+        int queryTimeout;
+        int maxRows;
+        int fetchSize;
+        try (Connection connection = pool.getConnection()) {
+            try (PreparedStatement statement = connection.prepareStatement("SELECT 1")) {
+                queryTimeout = statement.getQueryTimeout();
+                maxRows = statement.getMaxRows();
+                fetchSize = statement.getFetchSize();
+                assertNotEquals(0, fetchSize);
+
+                statement.setQueryTimeout(queryTimeout + 5);
+                statement.setMaxRows(maxRows + 100);
+                statement.setFetchSize(fetchSize + 100);
+            }
+            try (PreparedStatement statement = connection.prepareStatement("SELECT 1")) {
+                assertEquals(1, pool.getStatistics().getStatementCacheHits());
+                assertEquals(queryTimeout, statement.getQueryTimeout());
+                assertEquals(maxRows, statement.getMaxRows());
+                assertEquals(fetchSize, statement.getFetchSize());
+            }
+        }
+    }
+
+    /**
+     * A statement in steady use survives the eviction of statements prepared after it, while the least recently
+     * used one is evicted
+     */
+    @Test
+    void hotStatementSurvivesEviction() throws Exception {
+        pool = createPool("statement-cache-hot", 2);
+        try (Connection connection = pool.getConnection()) {
+            prepareAndClose(connection, "SELECT hot");
+            prepareAndClose(connection, "SELECT cold");
+            prepareAndClose(connection, "SELECT hot");
+            prepareAndClose(connection, "SELECT new");
+            assertEquals(1, pool.getStatistics().getStatementCacheEvictions());
+
+            long hits = pool.getStatistics().getStatementCacheHits();
+            prepareAndClose(connection, "SELECT hot");
+            assertEquals(hits + 1, pool.getStatistics().getStatementCacheHits());
+            long misses = pool.getStatistics().getStatementCacheMisses();
+            prepareAndClose(connection, "SELECT cold");
+            assertEquals(misses + 1, pool.getStatistics().getStatementCacheMisses());
+        }
+    }
+
+    /**
+     * A statement released while the cache already holds another one with the same key counts as the most recently
+     * used one, so it is not the next to be evicted
+     */
+    @Test
+    void duplicateReleaseRefreshesStatement() throws Exception {
+        pool = createPool("statement-cache-duplicate", 2);
+        try (Connection connection = pool.getConnection()) {
+            PreparedStatement first = connection.prepareStatement("SELECT hot");
+            prepareAndClose(connection, "SELECT hot");
+            prepareAndClose(connection, "SELECT cold");
+            first.close();
+            prepareAndClose(connection, "SELECT new");
+
+            long hits = pool.getStatistics().getStatementCacheHits();
+            prepareAndClose(connection, "SELECT hot");
+            assertEquals(hits + 1, pool.getStatistics().getStatementCacheHits());
+        }
+    }
+
+    /**
+     * Creates a pool instance of one connection with a statement cache of the given size
+     * @param database name of the stub database
+     * @param statementCacheSize max number of idle statements cached
+     * @return pool instance
+     */
+    private static M2CP createPool(String database, int statementCacheSize) throws Exception {
+        M2CPConfig config = M2CPTestPools.config(1);
+        config.setStatementCacheSize(statementCacheSize);
+        return M2CPTestPools.create(database, config);
+    }
+
+    /**
+     * Prepares a statement and closes it right away, which puts it into the statement cache
+     * @param connection connection to prepare the statement on
+     * @param sql SQL query
+     */
+    private static void prepareAndClose(Connection connection, String sql) throws Exception {
+        connection.prepareStatement(sql).close();
+    }
+}
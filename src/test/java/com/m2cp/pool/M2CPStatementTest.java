@@ -0,0 +1,68 @@
+package com.m2cp.pool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of tracking the result sets opened through a statement wrapper
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+class M2CPStatementTest
+{
+    // Pool instance under test
+    private M2CP pool;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        pool = M2CPTestPools.create("statement-result-sets", 1);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        pool.shutdown();
+    }
+
+    /**
+     * Executing a statement again closes the result set of the previous execution, so a statement reused without
+     * closing its result sets tracks the last one only
+     */
+    @Test
+    void reExecuteClosesPreviousResultSet() throws Exception {
+        try (Connection connection = pool.getConnection(); Statement statement = connection.createStatement()) {
+            ResultSet previous = statement.executeQuery("SELECT 1");
+            for (int i = 0; i < 10000; i++) {
+                ResultSet resultSet = statement.executeQuery("SELECT 1");
+                assertTrue(previous.isClosed());
+                previous = resultSet;
+            }
+            assertFalse(previous.isClosed());
+            assertTrue(previous == statement.getResultSet());
+        }
+    }
+
+    /**
+     * Moving to the next result drops the result set the driver has closed, and a result set opened afterwards is
+     * closed along with the statement
+     */
+    @Test
+    void moreResultsDropsClosedResultSet() throws Exception {
+        ResultSet last;
+        try (Connection connection = pool.getConnection(); Statement statement = connection.createStatement()) {
+            ResultSet first = statement.executeQuery("SELECT 1");
+            assertFalse(statement.getMoreResults());
+            assertTrue(first.isClosed());
+
+            last = statement.executeQuery("SELECT 1");
+        }
+        assertTrue(last.isClosed());
+    }
+}
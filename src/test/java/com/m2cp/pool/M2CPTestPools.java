@@ -0,0 +1,78 @@
+package com.m2cp.pool;
+
+import com.m2cp.pool.stub.M2CPStubDriver;
+
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Fixture shared by the tests of the pool. Pool instances are created on named databases of the stub driver, with
+ * settings that keep the maintenance of the pool out of the way of a test unless the test changes them
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+final class M2CPTestPools
+{
+    // Max lease time and max idle time long enough not to elapse during a test
+    static final long NEVER = 60000;
+
+    private M2CPTestPools() {}
+
+    /**
+     * Creates settings of a pool instance of the given size, whose leases are not reclaimed, which is not shut down
+     * for being idle, and which does not register its MXBean
+     * @param poolSize max number of open connections
+     * @return settings to be adjusted by the test
+     */
+    static M2CPConfig config(int poolSize) {
+        M2CPConfig config = new M2CPConfig();
+        config.setPoolSize(poolSize);
+        config.setMaxTimeLease(NEVER);
+        config.setMaxTimeIdle(NEVER);
+        config.setJmxEnabled(false);
+        return config;
+    }
+
+    /**
+     * Creates a pool instance of the given size on the stub database of the given name
+     * @param database name of the stub database
+     * @param poolSize max number of open connections
+     * @return pool instance
+     * @throws SQLException if the pool instance fails to open its connections
+     */
+    static M2CP create(String database, int poolSize) throws SQLException {
+        return create(database, config(poolSize));
+    }
+
+    /**
+     * Creates a pool instance with the given settings on the stub database of the given name
+     * @param database name of the stub database
+     * @param config settings of the pool instance
+     * @return pool instance
+     * @throws SQLException if the pool instance fails to open its connections
+     */
+    static M2CP create(String database, M2CPConfig config) throws SQLException {
+        return M2CP.getPool(M2CPStubDriver.url(database), new Properties(), config);
+    }
+
+    /**
+     * Waits for a condition that the pool meets in the background, e.g. once a connection has been opened by the
+     * connector threads
+     * @param condition condition to wait for
+     * @param timeout max time to wait in milliseconds
+     * @return true if the condition has been met; false if the time has elapsed
+     * @throws InterruptedException if the caller is interrupted while waiting
+     */
+    static boolean await(BooleanSupplier condition, long timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() >= deadline) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+}
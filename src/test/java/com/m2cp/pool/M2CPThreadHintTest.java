@@ -0,0 +1,80 @@
+package com.m2cp.pool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Tests of leasing the connection last returned by the calling thread before scanning the pool
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+class M2CPThreadHintTest
+{
+    // Pool instance under test
+    private M2CP pool;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        pool.shutdown();
+    }
+
+    /**
+     * A thread leasing over and over again keeps getting the same connection through its hint
+     */
+    @Test
+    void threadGetsBackItsLastConnection() throws Exception {
+        pool = M2CPTestPools.create("thread-hint-same", 4);
+        Connection first = pool.getConnection();
+        first.close();
+        for (int i = 0; i < 10; i++) {
+            Connection connection = pool.getConnection();
+            assertSame(first, connection);
+            connection.close();
+        }
+        assertEquals(1, pool.getStatistics().getScanLeases());
+        assertEquals(10, pool.getStatistics().getThreadHintLeases());
+    }
+
+    /**
+     * Each thread gets back its own connection, even though a scan would hand the first idle one in the list to
+     * whichever thread comes first
+     */
+    @Test
+    void threadsKeepTheirOwnConnections() throws Exception {
+        pool = M2CPTestPools.create("thread-hint-own", 4);
+        ExecutorService other = Executors.newSingleThreadExecutor();
+        try {
+            Connection mine = pool.getConnection();
+            Connection theirs = other.submit(() -> pool.getConnection()).get();
+            assertNotSame(mine, theirs);
+
+            // Returning the connection of this thread first makes it the first idle one in the list
+            mine.close();
+            other.submit(() -> {
+                theirs.close();
+                return null;
+            }).get();
+
+            Connection theirsAgain = other.submit(() -> pool.getConnection()).get();
+            assertSame(theirs, theirsAgain);
+            Connection mineAgain = pool.getConnection();
+            assertSame(mine, mineAgain);
+            mineAgain.close();
+            other.submit(() -> {
+                theirsAgain.close();
+                return null;
+            }).get();
+        } finally {
+            other.shutdownNow();
+        }
+        assertEquals(2, pool.getStatistics().getThreadHintLeases());
+    }
+}
@@ -0,0 +1,99 @@
+package com.m2cp.pool;
+
+import com.m2cp.pool.stub.M2CPStubDatabase;
+import com.m2cp.pool.stub.M2CPStubDriver;
+import com.m2cp.pool.stub.M2CPStubOperation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of validating idle connections in the background and replacing the broken ones before they are leased
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+class M2CPValidationTest
+{
+    // Validation interval short enough to elapse a few times during a test
+    private static final long VALIDATION_INTERVAL = 100;
+
+    // Pool instance under test
+    private M2CP pool;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        pool.shutdown();
+    }
+
+    /**
+     * Idle connections broken behind the back of the pool are all replaced in batches without any caller leasing
+     * them
+     */
+    @Test
+    void brokenIdleConnectionsAreReplaced() throws Exception {
+        int poolSize = 4;
+        M2CPStubDatabase database = M2CPStubDriver.getDatabase("validation-broken");
+        pool = M2CPTestPools.create(database.getName(), createConfig(poolSize));
+
+        database.breakConnections();
+        assertTrue(M2CPTestPools.await(() -> pool.getStatistics().getDestroyedConnections() == poolSize
+                && pool.getStatistics().getCreatedConnections() == poolSize * 2, 5000));
+        assertEquals(0, pool.getStatistics().getHoldTimes().getCount());
+        assertTrue(M2CPTestPools.await(() -> database.getOpenConnections() == poolSize, 5000));
+    }
+
+    /**
+     * A leased connection is left to its borrower, even if it is broken, while the idle ones get validated
+     */
+    @Test
+    void leasedConnectionIsNotValidated() throws Exception {
+        int poolSize = 3;
+        M2CPStubDatabase database = M2CPStubDriver.getDatabase("validation-leased");
+        pool = M2CPTestPools.create(database.getName(), createConfig(poolSize));
+
+        try (Connection connection = pool.getConnection()) {
+            database.breakConnections();
+            assertTrue(M2CPTestPools.await(
+                    () -> pool.getStatistics().getDestroyedConnections() == poolSize - 1, 5000));
+            Thread.sleep(VALIDATION_INTERVAL * 2);
+            assertEquals(poolSize - 1, pool.getStatistics().getDestroyedConnections());
+            assertFalse(connection.isValid(1));
+        }
+    }
+
+    /**
+     * Connections in steady use are not validated in the background, as each return counts as a proof of life
+     */
+    @Test
+    void connectionsInUseAreNotValidated() throws Exception {
+        M2CPStubDatabase database = M2CPStubDriver.getDatabase("validation-in-use");
+        pool = M2CPTestPools.create(database.getName(), createConfig(1));
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(VALIDATION_INTERVAL * 3);
+        long validated = database.getCalls(M2CPStubOperation.IS_VALID);
+        while (System.nanoTime() < deadline) {
+            pool.getConnection().close();
+            Thread.sleep(5);
+        }
+        assertEquals(validated, database.getCalls(M2CPStubOperation.IS_VALID));
+    }
+
+    /**
+     * Creates settings of a pool instance with a short validation interval and a batch smaller than the pool
+     * @param poolSize number of connections
+     * @return settings of the pool instance
+     */
+    private static M2CPConfig createConfig(int poolSize) {
+        M2CPConfig config = M2CPTestPools.config(poolSize);
+        config.setValidationInterval(VALIDATION_INTERVAL);
+        config.setValidationBatchSize(2);
+        config.setCleanerSleep(20);
+        return config;
+    }
+}
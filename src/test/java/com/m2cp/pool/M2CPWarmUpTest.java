@@ -0,0 +1,96 @@
+package com.m2cp.pool;
+
+import com.m2cp.pool.stub.M2CPStubDatabase;
+import com.m2cp.pool.stub.M2CPStubDriver;
+import com.m2cp.pool.stub.M2CPStubLatency;
+import com.m2cp.pool.stub.M2CPStubOperation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of populating a new pool instance, which starts leasing once the min number of ready connections is open
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+class M2CPWarmUpTest
+{
+    // Time the stub database takes to open a connection
+    private static final long CONNECT_TIME = 200;
+
+    // Pool instance under test
+    private M2CP pool;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * The pool instance is returned as soon as the min number of ready connections is open, while the rest of the
+     * connections get opened in the background
+     */
+    @Test
+    void poolIsReturnedOnceMinReadyConnectionsAreOpen() throws Exception {
+        int poolSize = 8;
+        M2CPStubDatabase database = M2CPStubDriver.getDatabase("warm-up-min-ready")
+                .setLatency(M2CPStubOperation.CONNECT, M2CPStubLatency.fixed(CONNECT_TIME, TimeUnit.MILLISECONDS));
+        M2CPConfig config = M2CPTestPools.config(poolSize);
+        config.setWarmupThreads(2);
+        config.setWarmupMinReady(2);
+
+        long started = System.nanoTime();
+        pool = M2CPTestPools.create(database.getName(), config);
+        // Two threads opening eight connections would take four rounds to populate the whole pool
+        assertTrue(System.nanoTime() - started < TimeUnit.MILLISECONDS.toNanos(CONNECT_TIME * 3));
+        assertTrue(database.getOpenConnections() < poolSize);
+
+        try (Connection connection = pool.getConnection()) {
+            assertTrue(connection.isValid(1));
+        }
+        assertTrue(M2CPTestPools.await(() -> pool.getStatistics().getCreatedConnections() == poolSize, 5000));
+        assertEquals(poolSize, database.getOpenConnections());
+    }
+
+    /**
+     * Without the min number of ready connections set, the pool instance is returned only after the whole pool is
+     * open
+     */
+    @Test
+    void poolIsReturnedOnceAllConnectionsAreOpen() throws Exception {
+        int poolSize = 4;
+        M2CPStubDatabase database = M2CPStubDriver.getDatabase("warm-up-full")
+                .setLatency(M2CPStubOperation.CONNECT, M2CPStubLatency.fixed(CONNECT_TIME, TimeUnit.MILLISECONDS));
+        M2CPConfig config = M2CPTestPools.config(poolSize);
+        config.setWarmupThreads(2);
+
+        pool = M2CPTestPools.create(database.getName(), config);
+        assertEquals(poolSize, pool.getStatistics().getCreatedConnections());
+        assertEquals(poolSize, database.getOpenConnections());
+    }
+
+    /**
+     * A warm-up that can't reach the min number of ready connections fails with the failure of the driver and
+     * leaves no connection open
+     */
+    @Test
+    void failedWarmUpLeavesNoConnectionOpen() throws Exception {
+        M2CPStubDatabase database = M2CPStubDriver.getDatabase("warm-up-failing")
+                .setFailureRate(M2CPStubOperation.CONNECT, 1);
+        M2CPConfig config = M2CPTestPools.config(4);
+        config.setWarmupMinReady(2);
+
+        SQLException e = assertThrows(SQLException.class, () -> M2CPTestPools.create(database.getName(), config));
+        assertEquals("08001", e.getSQLState());
+        assertEquals(0, database.getOpenConnections());
+    }
+}
@@ -0,0 +1,349 @@
+package com.m2cp.pool.stub;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Handler of a connection to the stub database. The connection keeps its session properties, so that the pool sees
+ * the values it has set, and answers the operations of {@link M2CPStubOperation} with their latency and failures.
+ * Statements do nothing: queries return empty result sets and updates affect no rows. As with real drivers, the
+ * current result set of a statement gets closed on the next execution and on moving to the next result, and closed
+ * along with the statement. Statements keep their query
+ * timeout, max rows and fetch size, which start at {@link #DEFAULT_QUERY_TIMEOUT}, {@link #DEFAULT_MAX_ROWS} and
+ * {@link #DEFAULT_FETCH_SIZE}. Any other call returns the default value of its type
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+final class M2CPStubConnection implements InvocationHandler
+{
+    // Limits each new statement starts with, non-zero where drivers commonly pick a non-zero default
+    static final int DEFAULT_QUERY_TIMEOUT = 0;
+    static final int DEFAULT_MAX_ROWS = 0;
+    static final int DEFAULT_FETCH_SIZE = 10;
+
+    // Database this connection belongs to
+    private final M2CPStubDatabase database;
+
+    // Generator of the latencies and failures of this connection
+    private final SplittableRandom random;
+
+    // Proxy handed to the caller
+    private final Connection proxy;
+
+    // Whether the connection has been closed by the caller or broken by the database
+    private volatile boolean closed;
+    private volatile boolean broken;
+
+    // Session properties
+    private boolean autoCommit = true;
+    private boolean readOnly;
+    private int transactionIsolation = Connection.TRANSACTION_READ_COMMITTED;
+    private String catalog;
+    private String schema = "public";
+    private int networkTimeout;
+    private Map<String, Class<?>> typeMap = new HashMap<>();
+
+    /**
+     * Constructor for a connection handler along with its proxy
+     * @param database database the connection belongs to
+     * @param random generator of the latencies and failures of the connection
+     */
+    M2CPStubConnection(M2CPStubDatabase database, SplittableRandom random) {
+        this.database = database;
+        this.random = random;
+        this.proxy = (Connection) Proxy.newProxyInstance(M2CPStubConnection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, this);
+    }
+
+    /**
+     * Gets connection to be handed to the caller
+     * @return proxy of this handler
+     */
+    Connection getProxy() {
+        return proxy;
+    }
+
+    /**
+     * Breaks this connection, so that validation and statements on it fail from now on
+     */
+    void markBroken() {
+        broken = true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "close":
+                if (!closed) {
+                    closed = true;
+                    database.closed(this);
+                    if (!database.perform(M2CPStubOperation.CLOSE, random)) {
+                        throw new SQLException("Failed to close stub connection: connection reset", "08006");
+                    }
+                }
+                return null;
+            case "abort":
+                closed = true;
+                database.closed(this);
+                return null;
+            case "isClosed":
+                return closed;
+            case "isValid":
+                return !closed && database.perform(M2CPStubOperation.IS_VALID, random) && !broken;
+            case "hashCode":
+                return System.identityHashCode(target);
+            case "equals":
+                return target == args[0];
+            case "toString":
+                return "stub connection to " + database.getName();
+            case "unwrap":
+                if (((Class<?>) args[0]).isInstance(target)) {
+                    return target;
+                }
+                throw new SQLException("Failed to unwrap stub connection: not a " + args[0]);
+            case "isWrapperFor":
+                return ((Class<?>) args[0]).isInstance(target);
+            default:
+                break;
+        }
+
+        checkOpen();
+        switch (method.getName()) {
+            case "setAutoCommit":
+                if (!database.perform(M2CPStubOperation.SET_AUTO_COMMIT, random)) {
+                    throw new SQLException("Failed to set auto-commit on stub connection: connection reset", "08006");
+                }
+                autoCommit = (Boolean) args[0];
+                return null;
+            case "getAutoCommit":
+                readProperty();
+                return autoCommit;
+            case "setReadOnly":
+                readOnly = (Boolean) args[0];
+                return null;
+            case "isReadOnly":
+                readProperty();
+                return readOnly;
+            case "setTransactionIsolation":
+                transactionIsolation = (Integer) args[0];
+                return null;
+            case "getTransactionIsolation":
+                readProperty();
+                return transactionIsolation;
+            case "setCatalog":
+                catalog = (String) args[0];
+                return null;
+            case "getCatalog":
+                readProperty();
+                return catalog;
+            case "setSchema":
+                schema = (String) args[0];
+                return null;
+            case "getSchema":
+                readProperty();
+                return schema;
+            case "setNetworkTimeout":
+                networkTimeout = (Integer) args[1];
+                return null;
+            case "getNetworkTimeout":
+                readProperty();
+                return networkTimeout;
+            case "setTypeMap":
+                typeMap = (Map<String, Class<?>>) args[0];
+                return null;
+            case "getTypeMap":
+                readProperty();
+                return typeMap;
+            case "prepareStatement":
+                if (!database.perform(M2CPStubOperation.PREPARE_STATEMENT, random)) {
+                    throw new SQLException("Failed to prepare statement on stub connection: syntax error", "42601");
+                }
+                return newStatement(PreparedStatement.class);
+            case "prepareCall":
+                return newStatement(CallableStatement.class);
+            case "createStatement":
+                return newStatement(Statement.class);
+            default:
+                return defaultValue(method.getReturnType());
+        }
+    }
+
+    /**
+     * Accounts for a read of a session property of this connection
+     * @throws SQLException if the read fails
+     */
+    private void readProperty() throws SQLException {
+        if (!database.perform(M2CPStubOperation.GET_SESSION_PROPERTY, random)) {
+            throw new SQLException("Failed to read session property of stub connection: connection reset", "08006");
+        }
+    }
+
+    /**
+     * Checks that this connection is neither closed nor broken
+     * @throws SQLException if the connection cannot be used
+     */
+    private void checkOpen() throws SQLException {
+        if (closed) {
+            throw new SQLException("Failed to use stub connection: connection is closed", "08003");
+        }
+        if (broken) {
+            throw new SQLException("Failed to use stub connection: connection reset", "08006");
+        }
+    }
+
+    /**
+     * Creates a statement of the given type on this connection. Executing it fails once the connection is broken
+     * @param type statement interface
+     * @param <T> type of the statement
+     * @return statement proxy
+     */
+    private <T extends Statement> T newStatement(Class<T> type) {
+        boolean[] statementClosed = {false};
+        int[] limits = {DEFAULT_QUERY_TIMEOUT, DEFAULT_MAX_ROWS, DEFAULT_FETCH_SIZE};
+        ResultSet[] current = {null};
+        return type.cast(Proxy.newProxyInstance(M2CPStubConnection.class.getClassLoader(), new Class<?>[]{type},
+                (target, method, args) -> {
+                    String name = method.getName();
+                    switch (name) {
+                        case "close":
+                            statementClosed[0] = true;
+                            closeResultSet(current);
+                            return null;
+                        case "isClosed":
+                            return statementClosed[0];
+                        case "getResultSet":
+                            return current[0];
+                        case "getMoreResults":
+                            closeResultSet(current);
+                            return false;
+                        case "setQueryTimeout":
+                            limits[0] = (Integer) args[0];
+                            return null;
+                        case "getQueryTimeout":
+                            return limits[0];
+                        case "setMaxRows":
+                            limits[1] = (Integer) args[0];
+                            return null;
+                        case "getMaxRows":
+                            return limits[1];
+                        case "setFetchSize":
+                            limits[2] = (Integer) args[0];
+                            return null;
+                        case "getFetchSize":
+                            return limits[2];
+                        case "getConnection":
+                            return proxy;
+                        case "hashCode":
+                            return System.identityHashCode(target);
+                        case "equals":
+                            return target == args[0];
+                        case "toString":
+                            return "stub statement on " + database.getName();
+                        case "unwrap":
+                            if (((Class<?>) args[0]).isInstance(target)) {
+                                return target;
+                            }
+                            throw new SQLException("Failed to unwrap stub statement: not a " + args[0]);
+                        case "isWrapperFor":
+                            return ((Class<?>) args[0]).isInstance(target);
+                        default:
+                            break;
+                    }
+                    if (name.startsWith("execute")) {
+                        checkOpen();
+                        if (statementClosed[0]) {
+                            throw new SQLException("Failed to execute stub statement: statement is closed");
+                        }
+                        closeResultSet(current);
+                        if (name.equals("executeQuery")) {
+                            current[0] = newResultSet();
+                            return current[0];
+                        }
+                        if (name.equals("executeBatch")) {
+                            return new int[0];
+                        }
+                    }
+                    if (name.equals("getUpdateCount")) {
+                        return -1;
+                    }
+                    return defaultValue(method.getReturnType());
+                }));
+    }
+
+    /**
+     * Closes the current result set of a statement, if there is one
+     * @param current holder of the current result set
+     * @throws SQLException never, as closing a stub result set can't fail
+     */
+    private static void closeResultSet(ResultSet[] current) throws SQLException {
+        if (current[0] != null) {
+            current[0].close();
+            current[0] = null;
+        }
+    }
+
+    /**
+     * Creates an empty result set
+     * @return result set proxy
+     */
+    private static ResultSet newResultSet() {
+        boolean[] resultSetClosed = {false};
+        return (ResultSet) Proxy.newProxyInstance(M2CPStubConnection.class.getClassLoader(),
+                new Class<?>[]{ResultSet.class}, (target, method, args) -> {
+                    switch (method.getName()) {
+                        case "close":
+                            resultSetClosed[0] = true;
+                            return null;
+                        case "isClosed":
+                            return resultSetClosed[0];
+                        case "hashCode":
+                            return System.identityHashCode(target);
+                        case "equals":
+                            return target == args[0];
+                        case "toString":
+                            return "stub result set";
+                        default:
+                            return defaultValue(method.getReturnType());
+                    }
+                });
+    }
+
+    /**
+     * Gets default value of the given type, i.e. false, zero or null
+     * @param type return type of a method
+     * @return default value
+     */
+    private static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        }
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == char.class) {
+            return '\0';
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == float.class) {
+            return 0f;
+        }
+        if (type == double.class) {
+            return 0d;
+        }
+        if (type == byte.class) {
+            return (byte) 0;
+        }
+        if (type == short.class) {
+            return (short) 0;
+        }
+        return 0;
+    }
+}
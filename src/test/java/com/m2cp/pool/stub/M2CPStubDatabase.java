@@ -0,0 +1,248 @@
+package com.m2cp.pool.stub;
+
+import java.sql.SQLException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Class that represents an in-memory database behind the stub driver. Each operation of the driver takes the
+ * latency drawn from its distribution and fails with its failure rate; both can be changed at any time, e.g. to
+ * make the database slow or unreachable in the middle of a stress test. The database counts calls and failures of
+ * each operation and keeps track of its open connections
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+public final class M2CPStubDatabase
+{
+    // Remaining latency below which the calling thread spins instead of parking, as parking is not that precise
+    private static final long SPIN_NANOS = 50_000;
+
+    // Name of the database, i.e. the part of the url after the prefix
+    private final String name;
+
+    // Latency distribution and failure rate of each operation
+    private final AtomicReferenceArray<Behaviour> behaviours =
+            new AtomicReferenceArray<>(M2CPStubOperation.values().length);
+
+    // Calls and failures of each operation
+    private final LongAdder[] calls = newCounters();
+    private final LongAdder[] failures = newCounters();
+
+    // Connections opened and not closed yet
+    private final Set<M2CPStubConnection> connections = ConcurrentHashMap.newKeySet();
+
+    // Generator that seeds each new connection, guarded by this database instance
+    private SplittableRandom random;
+
+    /**
+     * Constructor for a database instance without latency and failures, seeded with its name
+     * @param name name of the database
+     */
+    M2CPStubDatabase(String name) {
+        this.name = name;
+        reset();
+    }
+
+    /**
+     * Gets name of this database
+     * @return part of the url after the prefix of the driver
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Sets latency distribution of the given operation
+     * @param operation driver call to slow down
+     * @param latency latency distribution, or {@link M2CPStubLatency#NONE} for no latency
+     * @return this database instance
+     */
+    public M2CPStubDatabase setLatency(M2CPStubOperation operation, M2CPStubLatency latency) {
+        Objects.requireNonNull(latency, "latency");
+        Behaviour current;
+        do {
+            current = behaviours.get(operation.ordinal());
+        } while (!behaviours.compareAndSet(operation.ordinal(), current,
+                new Behaviour(latency, current.failureRate)));
+        return this;
+    }
+
+    /**
+     * Sets failure rate of the given operation
+     * @param operation driver call to fail
+     * @param failureRate probability of each call to fail, from 0 to 1
+     * @return this database instance
+     */
+    public M2CPStubDatabase setFailureRate(M2CPStubOperation operation, double failureRate) {
+        if (failureRate < 0 || failureRate > 1) {
+            throw new IllegalArgumentException("Failed to set failure rate: " + failureRate + " is not within [0, 1]");
+        }
+        Behaviour current;
+        do {
+            current = behaviours.get(operation.ordinal());
+        } while (!behaviours.compareAndSet(operation.ordinal(), current,
+                new Behaviour(current.latency, failureRate)));
+        return this;
+    }
+
+    /**
+     * Re-seeds the generator of this database. Connections opened afterwards draw the same latencies and failures
+     * in each run, given the same order of calls
+     * @param seed initial value of the generator
+     * @return this database instance
+     */
+    public synchronized M2CPStubDatabase setSeed(long seed) {
+        random = new SplittableRandom(seed);
+        return this;
+    }
+
+    /**
+     * Restores this database to no latency and no failures, resets its counters and seeds it with its name. Open
+     * connections stay open
+     */
+    public synchronized void reset() {
+        for (M2CPStubOperation operation : M2CPStubOperation.values()) {
+            behaviours.set(operation.ordinal(), new Behaviour(M2CPStubLatency.NONE, 0));
+            calls[operation.ordinal()].reset();
+            failures[operation.ordinal()].reset();
+        }
+        random = new SplittableRandom(name.hashCode());
+    }
+
+    /**
+     * Breaks all open connections, as if the database has been restarted. A broken connection fails validation and
+     * each statement executed on it, while closing it still succeeds
+     */
+    public void breakConnections() {
+        for (M2CPStubConnection connection : connections) {
+            connection.markBroken();
+        }
+    }
+
+    /**
+     * Gets number of calls of the given operation since the last reset
+     * @param operation driver call
+     * @return number of calls
+     */
+    public long getCalls(M2CPStubOperation operation) {
+        return calls[operation.ordinal()].sum();
+    }
+
+    /**
+     * Gets number of failed calls of the given operation since the last reset
+     * @param operation driver call
+     * @return number of calls
+     */
+    public long getFailures(M2CPStubOperation operation) {
+        return failures[operation.ordinal()].sum();
+    }
+
+    /**
+     * Gets number of connections opened and not closed yet
+     * @return number of connections
+     */
+    public int getOpenConnections() {
+        return connections.size();
+    }
+
+    /**
+     * Opens a connection to this database, taking the connect latency
+     * @return connection handler
+     * @throws SQLException if the connect call fails
+     */
+    M2CPStubConnection connect() throws SQLException {
+        SplittableRandom seed;
+        synchronized (this) {
+            seed = random.split();
+        }
+        if (!perform(M2CPStubOperation.CONNECT, seed)) {
+            throw new SQLException("Failed to connect to stub database: connection refused", "08001");
+        }
+        M2CPStubConnection connection = new M2CPStubConnection(this, seed);
+        connections.add(connection);
+        return connection;
+    }
+
+    /**
+     * Removes a closed connection from the open ones
+     * @param connection connection handler
+     */
+    void closed(M2CPStubConnection connection) {
+        connections.remove(connection);
+    }
+
+    /**
+     * Performs an operation, i.e. counts the call, waits for its latency and decides whether it fails. Failed calls
+     * take the latency as well, like a real database answering with an error
+     * @param operation driver call
+     * @param random generator of the calling connection
+     * @return true if the call succeeds; false otherwise
+     */
+    boolean perform(M2CPStubOperation operation, SplittableRandom random) {
+        Behaviour behaviour = behaviours.get(operation.ordinal());
+        calls[operation.ordinal()].increment();
+        pause(behaviour.latency.nextNanos(random));
+        if (behaviour.failureRate > 0 && random.nextDouble() < behaviour.failureRate) {
+            failures[operation.ordinal()].increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Blocks the calling thread for the given time. The thread parks for the most of it and spins for the rest, and
+     * stops waiting early if it gets interrupted, as a thread blocked on a socket would
+     * @param nanos time in nanoseconds
+     */
+    private static void pause(long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        long deadline = System.nanoTime() + nanos;
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0 && !Thread.currentThread().isInterrupted()) {
+            if (remaining > SPIN_NANOS) {
+                LockSupport.parkNanos(remaining - SPIN_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Creates a counter for each operation
+     * @return array of counters indexed by the ordinal of the operation
+     */
+    private static LongAdder[] newCounters() {
+        LongAdder[] counters = new LongAdder[M2CPStubOperation.values().length];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new LongAdder();
+        }
+        return counters;
+    }
+
+    /**
+     * Latency distribution and failure rate of an operation, replaced as a whole so that both are read consistently
+     */
+    private static final class Behaviour
+    {
+        // Latency distribution of each call
+        private final M2CPStubLatency latency;
+
+        // Probability of each call to fail
+        private final double failureRate;
+
+        /**
+         * Constructor for a behaviour instance
+         * @param latency latency distribution of each call
+         * @param failureRate probability of each call to fail
+         */
+        private Behaviour(M2CPStubLatency latency, double failureRate) {
+            this.latency = latency;
+            this.failureRate = failureRate;
+        }
+    }
+}
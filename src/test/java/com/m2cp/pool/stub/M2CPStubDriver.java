@@ -0,0 +1,94 @@
+package com.m2cp.pool.stub;
+
+import java.sql.*;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+/**
+ * In-memory JDBC driver for tests and benchmarks, so that the pool can be exercised without a database. The driver
+ * accepts urls starting with "jdbc:m2cp-stub:" followed by the name of a database, which is created on first use.
+ * Latency and failures of each database are configured through {@link M2CPStubDatabase}, e.g.
+ * <pre>
+ *     M2CPStubDriver.getDatabase("orders")
+ *             .setLatency(M2CPStubOperation.CONNECT, M2CPStubLatency.logNormal(5, 0.5, TimeUnit.MILLISECONDS))
+ *             .setFailureRate(M2CPStubOperation.IS_VALID, 0.01);
+ *     M2CP.getConnection(M2CPStubDriver.url("orders"), "user", "password");
+ * </pre>
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+public final class M2CPStubDriver implements Driver
+{
+    // Prefix of the urls accepted by this driver
+    public static final String URL_PREFIX = "jdbc:m2cp-stub:";
+
+    // Databases by name
+    private static final ConcurrentMap<String, M2CPStubDatabase> databases = new ConcurrentHashMap<>();
+
+    static {
+        try {
+            DriverManager.registerDriver(new M2CPStubDriver());
+        } catch (SQLException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Gets the database of the given name, creating it if it does not exist. Getting a database also makes sure the
+     * driver is registered with {@link DriverManager}
+     * @param name name of the database
+     * @return database instance
+     */
+    public static M2CPStubDatabase getDatabase(String name) {
+        return databases.computeIfAbsent(name, M2CPStubDatabase::new);
+    }
+
+    /**
+     * Gets url of the database of the given name, making sure the driver is registered with {@link DriverManager}
+     * @param name name of the database
+     * @return string to access the database
+     */
+    public static String url(String name) {
+        return URL_PREFIX + name;
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException {
+        if (!acceptsURL(url)) {
+            return null;
+        }
+        return getDatabase(url.substring(URL_PREFIX.length())).connect().getProxy();
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+        return url != null && url.startsWith(URL_PREFIX);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+}
@@ -0,0 +1,87 @@
+package com.m2cp.pool.stub;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Distribution of the time a call to the stub database takes. Each call draws its latency from the random generator
+ * of the connection, so a run with the same seed and the same order of calls on each connection is reproducible
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+@FunctionalInterface
+public interface M2CPStubLatency
+{
+    // Latency of a call that returns right away
+    M2CPStubLatency NONE = random -> 0;
+
+    /**
+     * Draws the latency of a single call
+     * @param random generator to draw from
+     * @return time in nanoseconds
+     */
+    long nextNanos(SplittableRandom random);
+
+    /**
+     * Gets a latency that is the same for each call
+     * @param time duration of each call
+     * @param unit unit of the duration
+     * @return latency distribution
+     */
+    static M2CPStubLatency fixed(long time, TimeUnit unit) {
+        long nanos = unit.toNanos(time);
+        return random -> nanos;
+    }
+
+    /**
+     * Gets a latency distributed uniformly between the given bounds
+     * @param min min duration of a call
+     * @param max max duration of a call, exclusive
+     * @param unit unit of the durations
+     * @return latency distribution
+     */
+    static M2CPStubLatency uniform(long min, long max, TimeUnit unit) {
+        long from = unit.toNanos(min);
+        long to = unit.toNanos(max);
+        if (from >= to) {
+            throw new IllegalArgumentException("Failed to create latency: min " + min + " is not below max " + max);
+        }
+        return random -> random.nextLong(from, to);
+    }
+
+    /**
+     * Gets an exponentially distributed latency, the usual model of waiting for a busy server
+     * @param mean mean duration of a call
+     * @param unit unit of the duration
+     * @return latency distribution
+     */
+    static M2CPStubLatency exponential(long mean, TimeUnit unit) {
+        double nanos = unit.toNanos(mean);
+        return random -> (long) (-nanos * Math.log(1.0 - random.nextDouble()));
+    }
+
+    /**
+     * Gets a log-normally distributed latency, which has the long tail of latencies seen over a real network. The
+     * greater the spread, the longer the tail; for example, with spread 1 one call in a hundred takes ten times the
+     * median or longer
+     * @param median median duration of a call
+     * @param spread standard deviation of the logarithm of the duration
+     * @param unit unit of the duration
+     * @return latency distribution
+     */
+    static M2CPStubLatency logNormal(long median, double spread, TimeUnit unit) {
+        double mu = Math.log(unit.toNanos(median));
+        return random -> (long) Math.exp(mu + spread * nextGaussian(random));
+    }
+
+    /**
+     * Draws a standard normal value with the Box-Muller transform, as {@link SplittableRandom} has no such method
+     * @param random generator to draw from
+     * @return normally distributed value with zero mean and unit deviation
+     */
+    static double nextGaussian(SplittableRandom random) {
+        double u = 1.0 - random.nextDouble();
+        double v = random.nextDouble();
+        return Math.sqrt(-2.0 * Math.log(u)) * Math.cos(2.0 * Math.PI * v);
+    }
+}
@@ -0,0 +1,28 @@
+package com.m2cp.pool.stub;
+
+/**
+ * Driver calls of the stub database that can be given a latency and a failure rate. These are the calls the pool
+ * itself makes on the hot path and during maintenance, so they are the ones that shape its behaviour
+ * @author mikhailsaltyshev
+ * @version 1.0.2
+ */
+public enum M2CPStubOperation
+{
+    // Opening a physical connection, failing with an exception
+    CONNECT,
+
+    // Checking a connection with isValid, failing by returning false
+    IS_VALID,
+
+    // Switching auto-commit mode, failing with an exception
+    SET_AUTO_COMMIT,
+
+    // Reading a session property, e.g. auto-commit mode or schema, failing with an exception
+    GET_SESSION_PROPERTY,
+
+    // Preparing a statement, failing with an exception
+    PREPARE_STATEMENT,
+
+    // Closing a physical connection, failing with an exception after the connection has been closed
+    CLOSE
+}